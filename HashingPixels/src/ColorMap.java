@@ -7,7 +7,9 @@ public class ColorMap implements Comparable<ColorMap> {
     public int blue;
     public int len;
     public int occurCt;
-    public Color representativeColor;
+    public int countError; // occurCt may be over the true count by up to this much, 0 when counted exactly
+    private ColorMap mappedTo = this;      // The cube whose center is this cube's representative color
+    private Color representativeColor;    // Made from mappedTo the first time it is asked for
 
     ColorMap(int alpha, int r, int g, int b,int len) {
         this.alpha = alpha/ len;
@@ -16,25 +18,97 @@ public class ColorMap implements Comparable<ColorMap> {
         this.blue = b/ len;
         this.len = len;
         this.occurCt = 0;
-
-        this.representativeColor = new Color(red* len + len /2, green* len + len /2, blue* len + len /2);
         occurCt =1;
     }
 
+    /**
+     * Makes the ColorMap for a packed cube key, with a count of 0
+     * @param key The packed cube key, as made by keyOf
+     * @param len Size of the cube
+     * @return A new ColorMap for the cube
+     */
+    static ColorMap fromKey(int key, int len) {
+        ColorMap map = new ColorMap(255, 0, 0, 0, len);
+        map.setKey(key);
+        map.occurCt = 0;
+        return map;
+    }
+
+    /**
+     * Packs the cube coordinates of a color into one int, 8 bits per channel
+     * Two colors have the same key exactly when their ColorMaps are equal
+     * @param r red value 0-255
+     * @param g green value 0-255
+     * @param b blue value 0-255
+     * @param len Size of the cube
+     * @return The packed cube key
+     */
+    static int keyOf(int r, int g, int b, int len) {
+        return (r / len) << 16 | (g / len) << 8 | (b / len);
+    }
+
+    /**
+     * @return The packed cube key of this ColorMap
+     */
+    int key() {
+        return red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Moves this ColorMap to another cube, so one object can probe a table for many colors
+     * @param key The packed cube key, as made by keyOf
+     */
+    void setKey(int key) {
+        this.red = key >> 16;
+        this.green = (key >> 8) & 0xff;
+        this.blue = key & 0xff;
+    }
+
+    /**
+     * Copies the cube of a probe into a new ColorMap, with a count of 0, for the first time the cube goes into a table
+     * @return A new ColorMap equal to this one
+     */
+    ColorMap copy() {
+        ColorMap map = fromKey(key(), len);
+        map.alpha = alpha;
+        return map;
+    }
+
     void setMappedColor(ColorMap c){
-        this.representativeColor = new Color(c.red* len + len /2, c.green* len + len /2, c.blue* len + len /2);
+        this.mappedTo = c;
+        this.representativeColor = null;
     }
     Color getRepresentativeColor(){
+        if (representativeColor == null) {
+            representativeColor = new Color(getRepresentativeRGB());
+        }
         return representativeColor;
     }
 
+    /**
+     * The representative color without making a Color object: the center of the mapped cube
+     * @return The color as 0xRRGGBB
+     */
+    int getRepresentativeRGB() {
+        return center(mappedTo.red) << 16 | center(mappedTo.green) << 8 | center(mappedTo.blue);
+    }
+
+    private int center(int coordinate) {
+        // The last cube can be cut short by 255, so keep its center in range
+        return Math.min(255, coordinate * len + len / 2);
+    }
+
     public String toString() {
         return "Color  (" + red + "," + green + "," + blue + ") " + occurCt;
     }
     @Override
     // Will allow you to sort the ColorMap by most popular
+    // Equal counts are ordered by cube, lower key first, so topK keeps the same colors whatever the table order
     public int compareTo(ColorMap c2) {
-        return occurCt -c2.occurCt;
+        if (occurCt != c2.occurCt) {
+            return Integer.compare(occurCt, c2.occurCt);
+        }
+        return Integer.compare(c2.key(), key());
     }
     @Override
     // Will allow you to find a previous entry in the HashTable
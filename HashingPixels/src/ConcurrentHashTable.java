@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Thread-safe hash table made of lock-striped HashTable segments.
+ * Each element belongs to one segment, picked from the high bits of its spread hashCode,
+ * and each segment has its own lock. Threads working on different segments never wait
+ * for each other, and a segment that fills up rehashes under its own lock only,
+ * so the other segments keep serving lookups and inserts while it resizes.
+ * Note that all "matching" is based on the equals method.
+ */
+public class ConcurrentHashTable<E> {
+    private final HashTable<E>[] segments;
+    private final ReentrantLock[] locks;
+    private final int segmentShift;
+
+    /**
+     * Creates a table with 4 segments per available processor
+     */
+    public ConcurrentHashTable() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrencyLevel The number of threads expected to write at once; rounded up to a power of two segments
+     */
+    public ConcurrentHashTable(int concurrencyLevel) {
+        this(concurrencyLevel, 101);
+    }
+
+    /**
+     * @param concurrencyLevel The number of threads expected to write at once; rounded up to a power of two segments
+     * @param segmentSize The approximate initial size of each segment
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentHashTable(int concurrencyLevel, int segmentSize) {
+        int count = HashTable.nextPowerOfTwo(Math.max(2, concurrencyLevel));
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        this.segments = (HashTable<E>[]) new HashTable<?>[count];
+        this.locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new HashTable<>(segmentSize);
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Picks the segment of an element from the top bits of its spread hashCode
+     * The segment tables reduce the raw hashCode with a modulo, so the two choices stay independent
+     */
+    private int segmentFor(Object x) {
+        return Hasher.MURMUR3.spread(x.hashCode()) >>> segmentShift;
+    }
+
+    /**
+     * Inserts an element if it is not already present
+     * @param x The element to insert
+     * @return true if x was inserted
+     */
+    public boolean insert(E x) {
+        int s = segmentFor(x);
+        locks[s].lock();
+        try {
+            return segments[s].insert(x);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /**
+     * Finds the element equal to x, inserting one made from x if there is none, atomically
+     * @param x The element to search for
+     * @param factory Makes the element to insert from x; it must be equal to x
+     * @return The element already present, or the one just inserted
+     */
+    public E computeIfAbsent(E x, Function<? super E, ? extends E> factory) {
+        int s = segmentFor(x);
+        locks[s].lock();
+        try {
+            return segments[s].computeIfAbsent(x, factory);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /**
+     * Finds the element equal to x, inserting one made from x if there is none, then runs update on it, atomically
+     * Lets a caller probe with one reused object and only allocate when the element is new
+     * @param x The element to search for; it is never stored
+     * @param factory Makes the element to insert from x; it must be equal to x
+     * @param update Changes the element found or inserted, while the segment is locked
+     * @return The element found or inserted
+     */
+    public E computeAndUpdate(E x, Function<? super E, ? extends E> factory, Consumer<? super E> update) {
+        int s = segmentFor(x);
+        locks[s].lock();
+        try {
+            E found = segments[s].computeIfAbsent(x, factory);
+            update.accept(found);
+            return found;
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /**
+     * Inserts x if no equal element is present, otherwise runs update on the element that is
+     * Update runs while the segment is locked, so it can safely change counts such as ColorMap.occurCt
+     * @param x The element to insert
+     * @param update Changes the element already present
+     * @return true if x was inserted
+     */
+    public boolean insertOrUpdate(E x, Consumer<? super E> update) {
+        int s = segmentFor(x);
+        locks[s].lock();
+        try {
+            E found = segments[s].computeIfAbsent(x, Function.identity());
+            if (found != x) {
+                update.accept(found);
+                return false;
+            }
+            return true;
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /**
+     * @param x The element to search for
+     * @return The matching element, or null
+     */
+    public E find(E x) {
+        int s = segmentFor(x);
+        locks[s].lock();
+        try {
+            return segments[s].find(x);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /**
+     * @param x The element to search for
+     * @return true if the element is found
+     */
+    public boolean contains(E x) {
+        return find(x) != null;
+    }
+
+    /**
+     * @param x The element to remove
+     * @return true if the element was removed
+     */
+    public boolean remove(E x) {
+        int s = segmentFor(x);
+        locks[s].lock();
+        try {
+            return segments[s].remove(x);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /**
+     * Adds up the segment sizes, locking one segment at a time
+     * While other threads are writing, the total is only a moment-by-moment estimate
+     * @return The number of elements
+     */
+    public int size() {
+        int total = 0;
+        for (int s = 0; s < segments.length; s++) {
+            locks[s].lock();
+            try {
+                total += segments[s].size();
+            } finally {
+                locks[s].unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Runs action on every element in place, locking one segment at a time
+     * While other threads are writing, elements added after their segment was visited are missed
+     * @param action Receives each element, while its segment is locked
+     */
+    public void forEach(Consumer<? super E> action) {
+        for (int s = 0; s < segments.length; s++) {
+            locks[s].lock();
+            try {
+                segments[s].forEach(action);
+            } finally {
+                locks[s].unlock();
+            }
+        }
+    }
+
+    /**
+     * Copies the elements of every segment, locking one segment at a time
+     * @return ArrayList of all elements
+     */
+    public ArrayList<E> getAll() {
+        ArrayList<E> allData = new ArrayList<>();
+        for (int s = 0; s < segments.length; s++) {
+            locks[s].lock();
+            try {
+                allData.addAll(segments[s].getAll());
+            } finally {
+                locks[s].unlock();
+            }
+        }
+        return allData;
+    }
+
+    /**
+     * @return The number of segments, each with its own lock
+     */
+    public int segmentCount() {
+        return segments.length;
+    }
+}
@@ -0,0 +1,111 @@
+
+// Count-Min sketch of int keys
+//
+// CONSTRUCTION: a row width (rounded up to a power of two) and a number of rows
+//
+// ******************PUBLIC OPERATIONS*********************
+// int add( key )         --> Count key once, return its new estimate
+// int estimate( key )    --> Return the estimated count for key
+// long total( )          --> Number of keys added
+// long errorBound( )     --> How far an estimate can be over, with high probability
+// void makeEmpty( )      --> Forget every count
+
+/**
+ * Fixed-size table of counters that estimates how often each int key was added.
+ * Each of depth rows has width counters, and every key hashes to one counter per row.
+ * An estimate is the smallest of its key's counters, so it is never below the true count,
+ * and it is over by at most errorBound( ) = e * total( ) / width except with probability
+ * e to the power -depth. Adds use the conservative update: only the counters equal to
+ * the current estimate are raised, which keeps the others from drifting further up.
+ * Memory is width * depth ints however many distinct keys are added.
+ */
+public class CountMinSketch
+{
+    /**
+     * Construct the sketch.
+     * @param width the counters per row, rounded up to a power of two.
+     * @param depth the number of rows, each with its own hash function.
+     */
+    public CountMinSketch( int width, int depth )
+    {
+        if( width < 1 || depth < 1 )
+            throw new IllegalArgumentException( "width and depth must be positive: " + width + ", " + depth );
+        this.width = HashTable.nextPowerOfTwo( width );
+        this.counts = new int[ depth ][ this.width ];
+    }
+
+    /**
+     * Count one occurrence of key.
+     * @param key the key to count.
+     * @return the estimate for key after counting it.
+     */
+    public int add( int key )
+    {
+        int estimate = estimate( key ) + 1;
+        for( int row = 0; row < counts.length; row++ )
+        {
+            int col = column( key, row );
+            if( counts[ row ][ col ] < estimate )
+                counts[ row ][ col ] = estimate;
+        }
+        total++;
+        return estimate;
+    }
+
+    /**
+     * Estimate how often key was added.
+     * @param key the key to look up.
+     * @return at least the true count, 0 if key was never added and nothing collides with it.
+     */
+    public int estimate( int key )
+    {
+        int min = Integer.MAX_VALUE;
+        for( int row = 0; row < counts.length; row++ )
+            min = Math.min( min, counts[ row ][ column( key, row ) ] );
+        return min;
+    }
+
+    /**
+     * Get the number of keys added.
+     * @return the total count.
+     */
+    public long total( )
+    {
+        return total;
+    }
+
+    /**
+     * Get the amount an estimate can be over its true count, except with probability e^-depth.
+     * @return e * total( ) / width, rounded up.
+     */
+    public long errorBound( )
+    {
+        return (long) Math.ceil( Math.E * total / width );
+    }
+
+    /**
+     * Forget every count.
+     */
+    public void makeEmpty( )
+    {
+        for( int [ ] row : counts )
+            java.util.Arrays.fill( row, 0 );
+        total = 0;
+    }
+
+    /**
+     * Hash function number row, one counter of that row.
+     */
+    private int column( int key, int row )
+    {
+        return Hasher.MURMUR3.spread( key ^ ( ROW_SEEDS[ row % ROW_SEEDS.length ] + row ) ) & ( width - 1 );
+    }
+
+    private static final int [ ] ROW_SEEDS = {
+        0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1, 0xD3A2646C, 0xFD7046C5, 0xB55A4F09
+    };
+
+    private final int width;        // Counters per row, a power of two
+    private final int [ ] [ ] counts;
+    private long total;             // Keys added
+}
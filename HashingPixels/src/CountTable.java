@@ -0,0 +1,37 @@
+// Int keys with counts, read only
+//
+// ******************PUBLIC OPERATIONS*********************
+// void forEach( v )      --> Visit every key and count
+// int size( )            --> Number of distinct keys
+// int error( key )       --> How far the count of key may be above its true count
+
+/**
+ * Read-only view of int keys and their counts, such as the packed cube keys of
+ * a color histogram. IntHashTable and MappedIntHashTable are count tables;
+ * ReColor wraps its other histograms as count tables, so a palette is built
+ * from keys and counts and only the chosen colors become ColorMaps.
+ */
+public interface CountTable
+{
+    /**
+     * Visit every key and its count, in no particular order.
+     * @param visitor receives each key and count.
+     */
+    void forEach( IntHashTable.EntryVisitor visitor );
+
+    /**
+     * Get current size.
+     * @return the number of distinct keys.
+     */
+    int size( );
+
+    /**
+     * How far a count may be above the true count of its key.
+     * @param key a key of the table.
+     * @return the most the count of key may be over, 0 when counted exactly.
+     */
+    default int error( int key )
+    {
+        return 0;
+    }
+}
@@ -0,0 +1,461 @@
+
+// Cuckoo Hash table class
+//
+// CONSTRUCTION: an approximate initial size or default of 101,
+// and optionally the key hash the two hash functions start from
+//
+// ******************PUBLIC OPERATIONS*********************
+// bool insert( x )       --> Insert x
+// bool remove( x )       --> Remove x
+// bool contains( x )     --> Return true if x is present
+// E find( x )            --> Return the item equal to x
+// void makeEmpty( )      --> Remove all items
+
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cuckoo hash table with the same operations as HashTable.
+ * Every item lives either in its cell of the first array or its cell of the second,
+ * each chosen by its own hash function, so find, contains and remove look at two cells at most.
+ * Insert puts the item in its first cell and, if that cell was taken, moves the old
+ * occupant to its other cell, and so on. If that goes on for MAX_EVICTIONS moves,
+ * the item left without a cell goes into a small overflow HashTable, and the table
+ * rebuilds with new hash functions each time the overflow doubles.
+ * Both hash functions start from the item's key hash, its hashCode unless the table is built
+ * with another, so three or more items with the same key hash can never all get a cell,
+ * whatever the seeds; the rest of them stay in the overflow, where find, contains and remove
+ * look next. The arrays only grow with the load, never because items could not be placed.
+ * Give a key hash when hashCodes repeat often: ColorMap's hashCode is r + g + b, so build
+ * a table of ColorMaps with ColorMap::key.
+ * Note that all "matching" is based on the equals method.
+ */
+public class CuckooHashTable<E>
+{
+    /**
+     * Construct the hash table.
+     */
+    public CuckooHashTable( )
+    {
+        this( DEFAULT_TABLE_SIZE );
+    }
+
+    /**
+     * Construct the hash table.
+     * @param size the approximate initial size, split between the two arrays.
+     */
+    public CuckooHashTable( int size )
+    {
+        this( size, Object::hashCode );
+    }
+
+    /**
+     * Construct the hash table.
+     * @param size the approximate initial size, split between the two arrays.
+     * @param keyHash hash of each item, ideally different for every item;
+     * equal items must have equal key hashes.
+     */
+    public CuckooHashTable( int size, ToIntFunction<? super E> keyHash )
+    {
+        this.keyHash = keyHash;
+        allocateArrays( size / 2 );
+        newSeeds( );
+    }
+
+    /**
+     * Insert into the hash table. If the item is
+     * already present, do nothing.
+     * @param x the item to insert.
+     */
+    public boolean insert( E x )
+    {
+        probesThisOp = 0;
+        if( findPos( x ) != NOT_FOUND )
+        {
+            stats.recordHit( );
+            recordOperation( );
+            return false;
+        }
+        stats.recordInsert( );
+
+        if( currentSize + 1 > MAX_LOAD * 2 * first.length )
+            rehash( 2 * first.length );
+
+        if( first[ myhash( x, seed1 ) ] != null )
+            stats.recordCollision( );
+        Object pending = place( x );
+        recordOperation( );
+        currentSize++;
+        if( pending != null )
+        {
+            overflow.insert( pending );
+            if( overflow.size( ) > 2 * overflowAfterRehash + OVERFLOW_SLACK )
+                rehash( first.length );
+        }
+        return true;
+    }
+
+    /**
+     * Place x, moving occupants to their other cell, for at most MAX_EVICTIONS moves.
+     * Each cell written counts as a probe of the current operation.
+     * @param x the item to place.
+     * @return null if everything found a cell, otherwise the item left without one.
+     */
+    private Object place( Object x )
+    {
+        Object current = x;
+        for( int moves = 0; moves < MAX_EVICTIONS; moves++ )
+        {
+            // Alternate arrays: an item pushed out of one array goes to its cell in the other
+            Object [ ] tab = moves % 2 == 0 ? first : second;
+            int currentPos = myhash( current, moves % 2 == 0 ? seed1 : seed2 );
+            probesThisOp++;
+            Object resident = tab[ currentPos ];
+            tab[ currentPos ] = current;
+            if( resident == null )
+                return null;
+            current = resident;
+        }
+        return current;
+    }
+
+    /**
+     * Look at the two cells where x could be, then the overflow if it is not empty,
+     * counting each cell and the overflow lookup as probes of the current operation.
+     * @param x the item to search for.
+     * @return 0 to n - 1 for a cell of the first array, n to 2n - 1 for the second,
+     * IN_OVERFLOW, or NOT_FOUND.
+     */
+    private int findPos( E x )
+    {
+        int pos1 = myhash( x, seed1 );
+        probesThisOp++;
+        if( first[ pos1 ] != null && first[ pos1 ].equals( x ) )
+            return pos1;
+        int pos2 = myhash( x, seed2 );
+        probesThisOp++;
+        if( second[ pos2 ] != null && second[ pos2 ].equals( x ) )
+            return first.length + pos2;
+        if( overflow.size( ) == 0 )
+            return NOT_FOUND;
+        probesThisOp++;
+        return overflow.contains( x ) ? IN_OVERFLOW : NOT_FOUND;
+    }
+
+    /**
+     * Rebuild the table with new hash functions, taking the overflow items back too.
+     * Tries up to REHASH_ATTEMPTS pairs of hash functions; on the last one, items that
+     * still find no cell go into the overflow. Moves made while rebuilding are not
+     * recorded in the statistics.
+     * @param newSize the approximate length of each array.
+     */
+    private void rehash( int newSize )
+    {
+        ArrayList<Object> items = new ArrayList<>( currentSize );
+        for( Object [ ] tab : new Object[ ][ ] { first, second } )
+            for( Object item : tab )
+                if( item != null )
+                    items.add( item );
+        items.addAll( overflow.getAll( ) );
+
+        stats.recordRehash( );
+        int savedProbes = probesThisOp;
+        for( int attempt = 1; ; attempt++ )
+        {
+            allocateArrays( newSize );
+            newSeeds( );
+            overflow.makeEmpty( );
+            boolean placed = true;
+            for( Object item : items )
+            {
+                Object pending = place( item );
+                if( pending == null )
+                    continue;
+                if( attempt < REHASH_ATTEMPTS )
+                {
+                    placed = false;
+                    break;
+                }
+                overflow.insert( pending );
+            }
+            if( placed )
+                break;
+        }
+        overflowAfterRehash = overflow.size( );
+        probesThisOp = savedProbes;
+    }
+
+    private void recordOperation( )
+    {
+        this.totalProbeCount += probesThisOp;
+        this.totalUses++;
+        stats.recordProbes( probesThisOp );
+    }
+
+    /**
+     * Returns the average probe count per operation. Lookups cost 1 or 2, inserts
+     * also count every move. Unlike HashTable this is not reset by a rehash.
+     * @return The average probe count per operation
+     */
+    public float getAverageProbeCount() {
+        return (float) this.totalProbeCount / this.totalUses;
+    }
+
+    /**
+     * Returns a snapshot of the probe and occupancy statistics, with the same reset rules as HashTable.
+     * Capacity is the length of both arrays together.
+     * @return statistics that later operations will not change
+     */
+    public ProbeStats getStatistics( )
+    {
+        return stats.snapshot( currentSize, capacity( ), 0 );
+    }
+
+    /**
+     * Clear the counters behind getStatistics.
+     */
+    public void resetStatistics( )
+    {
+        stats.reset( );
+    }
+
+    /**
+     * Returns an ArrayList of all elements in the table
+     * @return ArrayList of all elements in the table
+     */
+    @SuppressWarnings( "unchecked" )
+    public ArrayList<E> getAll() {
+        ArrayList<E> allData = new ArrayList<>(currentSize);
+        for (Object item : first) {
+            if (item != null) {
+                allData.add((E) item);
+            }
+        }
+        for (Object item : second) {
+            if (item != null) {
+                allData.add((E) item);
+            }
+        }
+        for (Object item : overflow.getAll()) {
+            allData.add((E) item);
+        }
+        return allData;
+    }
+
+    /**
+     * Remove from the hash table.
+     * @param x the item to remove.
+     * @return true if item removed
+     */
+    public boolean remove( E x )
+    {
+        probesThisOp = 0;
+        int currentPos = findPos( x );
+        recordOperation( );
+        if( currentPos == NOT_FOUND )
+        {
+            stats.recordMiss( );
+            return false;
+        }
+
+        if( currentPos == IN_OVERFLOW )
+            overflow.remove( x );
+        else if( currentPos < first.length )
+            first[ currentPos ] = null;
+        else
+            second[ currentPos - first.length ] = null;
+        currentSize--;
+        stats.recordRemove( );
+        return true;
+    }
+
+    /**
+     * Get current size.
+     * @return the size.
+     */
+    public int size( )
+    {
+        return currentSize;
+    }
+
+    /**
+     * Get the number of cells in both arrays.
+     * @return the capacity.
+     */
+    public int capacity( )
+    {
+        return 2 * first.length;
+    }
+
+    /**
+     * Find an item in the hash table.
+     * @param x the item to search for.
+     * @return true if item is found
+     */
+    public boolean contains( E x )
+    {
+        return find( x ) != null;
+    }
+
+    /**
+     * Find an item in the hash table.
+     * @param x the item to search for.
+     * @return the matching item.
+     */
+    @SuppressWarnings( "unchecked" )
+    public E find( E x )
+    {
+        probesThisOp = 0;
+        int currentPos = findPos( x );
+        recordOperation( );
+        if( currentPos == NOT_FOUND )
+        {
+            stats.recordMiss( );
+            return null;
+        }
+        stats.recordHit( );
+        if( currentPos == IN_OVERFLOW )
+            return (E) overflow.find( x );
+        if( currentPos < first.length )
+            return (E) first[ currentPos ];
+        return (E) second[ currentPos - first.length ];
+    }
+
+    /**
+     * Make the hash table logically empty.
+     */
+    public void makeEmpty( )
+    {
+        currentSize = 0;
+        java.util.Arrays.fill( first, null );
+        java.util.Arrays.fill( second, null );
+        overflow.makeEmpty( );
+        overflowAfterRehash = 0;
+    }
+
+    /**
+     * Hash function number one or two, chosen by seed.
+     * @param x the item to hash.
+     * @param seed the seed of the hash function.
+     * @return a cell of one array.
+     */
+    @SuppressWarnings( "unchecked" )
+    private int myhash( Object x, int seed )
+    {
+        // Only items of type E are ever stored or looked up
+        int hashVal = Hasher.MURMUR3.spread( keyHash.applyAsInt( (E) x ) ^ seed );
+
+        hashVal %= first.length;
+        if( hashVal < 0 )
+            hashVal += first.length;
+
+        return hashVal;
+    }
+
+    private void newSeeds( )
+    {
+        seed1 = random.nextInt( );
+        seed2 = random.nextInt( );
+    }
+
+    /**
+     * Internal method to allocate both arrays.
+     * @param arraySize the approximate length of each array.
+     */
+    private void allocateArrays( int arraySize )
+    {
+        int length = HashTable.nextPrime( Math.max( arraySize, 2 ) );
+        first = new Object[ length ];
+        second = new Object[ length ];
+    }
+
+    private static final int DEFAULT_TABLE_SIZE = 101;
+    private static final int OVERFLOW_SIZE = 17;
+    private static final double MAX_LOAD = 0.45;          // Share of all cells used before growing
+    private static final int MAX_EVICTIONS = 64;          // Moves allowed per insert before choosing new hash functions
+    private static final int REHASH_ATTEMPTS = 4;         // Hash function pairs tried per rebuild before using the overflow
+    private static final int OVERFLOW_SLACK = 8;          // Overflow items allowed past double the count after the last rebuild
+    private static final int NOT_FOUND = -1;
+    private static final int IN_OVERFLOW = -2;
+
+    private final ToIntFunction<? super E> keyHash; // What both hash functions start from
+    private Object [ ] first;       // Cells chosen by the first hash function
+    private Object [ ] second;      // Cells chosen by the second hash function
+    private int seed1;
+    private int seed2;
+    private int currentSize;        // Items in the arrays and the overflow
+    private final HashTable<Object> overflow = new HashTable<>( OVERFLOW_SIZE ); // Items left without a cell
+    private int overflowAfterRehash; // Overflow size after the last rebuild
+    private final Random random = new Random( );
+
+    private long totalProbeCount;
+    private long totalUses;
+    private int probesThisOp;       // Probes of the operation in progress
+    private final ProbeStats stats = new ProbeStats( );
+
+    // Simple main
+    public static void main( String [ ] args )
+    {
+        CuckooHashTable<Integer> cuckoo = new CuckooHashTable<>( );
+        HashTable<Integer> quadratic = new HashTable<>( );
+        Random r = new Random( 7 );
+        for( int i = 0; i < 200000; i++ )
+        {
+            int value = r.nextInt( 1000000 );
+            cuckoo.insert( value );
+            quadratic.insert( value );
+        }
+        for( int i = 0; i < 200000; i++ )
+        {
+            int value = r.nextInt( 1000000 );
+            if( cuckoo.contains( value ) != quadratic.contains( value ) )
+                System.out.println( "Tables disagree about " + value );
+        }
+        // Without the overflow the cuckoo table should never probe more than 2 cells on a lookup
+        System.out.println( "Cuckoo\n" + cuckoo.getStatistics( ) );
+        System.out.println( "Quadratic\n" + quadratic.getStatistics( ) );
+
+        // Items with the same hashCode: these Strings all hash alike, and so do ColorMaps with equal r + g + b
+        CuckooHashTable<String> sameHash = new CuckooHashTable<>( );
+        String [ ] halves = { "Aa", "BB" };
+        for( int i = 0; i < 64; i++ )
+        {
+            StringBuilder s = new StringBuilder( );
+            for( int bit = 0; bit < 6; bit++ )
+                s.append( halves[ ( i >> bit ) & 1 ] );
+            sameHash.insert( s.toString( ) );
+        }
+        CuckooHashTable<ColorMap> colors = new CuckooHashTable<>( );
+        for( int red = 0; red <= 36; red += 6 )
+            for( int g = 0; red + g <= 36; g += 6 )
+                colors.insert( new ColorMap( 255, red, g, 36 - red - g, 6 ) );
+        boolean found = sameHash.contains( "AaBBAaBBAaBB" ) && !sameHash.contains( "AaBBAaBBAaBb" )
+                && colors.contains( new ColorMap( 255, 6, 30, 0, 6 ) ) && colors.remove( new ColorMap( 255, 0, 0, 36, 6 ) )
+                && !colors.contains( new ColorMap( 255, 0, 0, 36, 6 ) );
+        System.out.println( "Equal hashCodes: " + sameHash.size( ) + " strings, " + colors.size( ) + " colors, "
+                + ( found ? "all found" : "LOOKUPS WRONG" ) + ", capacity " + sameHash.capacity( ) );
+
+        // 13 x 13 x 13 cubes share only 37 sums r + g + b, so by hashCode most of them end up in the
+        // overflow; keyed by ColorMap::key no lookup should need the overflow's third probe
+        CuckooHashTable<ColorMap> byHashCode = new CuckooHashTable<>( );
+        CuckooHashTable<ColorMap> byKey = new CuckooHashTable<>( DEFAULT_TABLE_SIZE, ColorMap::key );
+        for( int red = 0; red < 13; red++ )
+            for( int green = 0; green < 13; green++ )
+                for( int blue = 0; blue < 13; blue++ )
+                {
+                    byHashCode.insert( ColorMap.fromKey( red << 16 | green << 8 | blue, 6 ) );
+                    byKey.insert( ColorMap.fromKey( red << 16 | green << 8 | blue, 6 ) );
+                }
+        byHashCode.resetStatistics( );
+        byKey.resetStatistics( );
+        for( ColorMap c : byKey.getAll( ) )
+        {
+            byHashCode.contains( c );
+            byKey.contains( c );
+        }
+        System.out.printf( "%d cubes, lookups in the overflow: by hashCode %d, by key %d\n", byKey.size( ),
+                byHashCode.getStatistics( ).getProbeCount( 3 ), byKey.getStatistics( ).getProbeCount( 3 ) );
+    }
+}
@@ -0,0 +1,456 @@
+
+// Struct-of-arrays QuadraticProbing Hash table class
+//
+// CONSTRUCTION: an approximate initial size or default of 101
+//
+// ******************PUBLIC OPERATIONS*********************
+// bool insert( x )       --> Insert x
+// bool remove( x )       --> Remove x
+// bool contains( x )     --> Return true if x is present
+// E find( x )            --> Return the item equal to x
+// E computeIfAbsent( x, f ) --> Find x, or insert f( x ), in one probe
+// void makeEmpty( )      --> Remove all items
+// void compact( )        --> Drop lazily deleted cells
+// void setHasher( h )    --> Choose how hashCodes are spread
+// ProbeStats getStatistics( ) --> Snapshot of probe and occupancy counters
+
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Quadratic probing hash table with the basic operations of HashTable, laid out
+ * as parallel arrays instead of one HashEntry object per cell: the ones listed above,
+ * plus getAll, iteration and the probe averages. It has none of HashTable's probing or
+ * sizing modes, incremental rehash, shrinking, topK, streams or freeze.
+ * The elements sit in one Object array, each cell's state (empty, live or deleted)
+ * in a byte array, and each element's spread hash code in an int array, so a probe
+ * reads the control byte and cached hash first and only calls equals when the hashes match.
+ * Uses prime sizing, lazy deletion with reuse of deleted cells, and rehashes at half full like HashTable.
+ */
+public class FlatHashTable<E> implements Iterable<E>
+{
+    /**
+     * Construct the hash table.
+     */
+    public FlatHashTable( )
+    {
+        this( DEFAULT_TABLE_SIZE );
+    }
+
+    /**
+     * Construct the hash table.
+     * @param size the approximate initial size.
+     */
+    public FlatHashTable( int size )
+    {
+        allocateArrays( size );
+    }
+
+    /**
+     * Insert into the hash table. If the item is
+     * already present, do nothing.
+     * @param x the item to insert.
+     */
+    public boolean insert( E x )
+    {
+        int before = currentActiveEntries;
+        insertItem( x, null );
+        return currentActiveEntries > before;
+    }
+
+    /**
+     * Find an item, inserting one made from it if it is not present, with a single probe.
+     * @param x the item to search for.
+     * @param factory makes the item to insert from x; it must be equal to x.
+     * @return the item already in the table, or the one just inserted.
+     */
+    public E computeIfAbsent( E x, Function<? super E, ? extends E> factory )
+    {
+        return insertItem( x, factory );
+    }
+
+    /**
+     * Quadratic probing insertion that reuses the first deleted cell on the probe path.
+     * @param x the item to insert.
+     * @param factory makes the item to insert from x, or null to insert x itself.
+     * @return the item equal to x now in the table.
+     */
+    @SuppressWarnings( "unchecked" )
+    private E insertItem( E x, Function<? super E, ? extends E> factory )
+    {
+        int hash = hasher.spread( x.hashCode( ) );
+        int probeCount = 1;
+        int offset = 1;
+        int currentPos = myhash( hash );
+        int tombstonePos = -1;
+        boolean collided = control[ currentPos ] != EMPTY;
+
+        while( control[ currentPos ] != EMPTY )
+        {
+            if( control[ currentPos ] == LIVE )
+            {
+                if( hashes[ currentPos ] == hash && elements[ currentPos ].equals( x ) )
+                    break;
+            }
+            else if( tombstonePos == -1 )
+                tombstonePos = currentPos;
+
+            probeCount++;
+            currentPos += offset;  // Compute ith probe
+            offset += 2;
+            if( currentPos >= elements.length )
+                currentPos -= elements.length;
+        }
+        recordOperation( probeCount );
+
+        if( control[ currentPos ] == LIVE )
+        {
+            stats.recordHit( );
+            return (E) elements[ currentPos ];
+        }
+
+        stats.recordInsert( );
+        if( collided )
+            stats.recordCollision( );
+        currentActiveEntries++;
+        modCount++;
+        E item = factory == null ? x : factory.apply( x );
+        if( tombstonePos != -1 )
+        {
+            // Reuse a deleted location; the occupied count does not change
+            deletedCt--;
+            place( tombstonePos, item, hash );
+            return item;
+        }
+        place( currentPos, item, hash );
+
+        // Rehash; see Section 5.5
+        if( ++occupiedCt > elements.length / 2 )
+        {
+            if( deletedCt > occupiedCt * COMPACT_TOMBSTONE_FRACTION )
+                compact( );
+            else
+                rehash( 2 * elements.length );
+        }
+        return item;
+    }
+
+    private void place( int currentPos, Object x, int hash )
+    {
+        elements[ currentPos ] = x;
+        hashes[ currentPos ] = hash;
+        control[ currentPos ] = LIVE;
+    }
+
+    /**
+     * Method that performs quadratic probing resolution.
+     * @param x the item to search for.
+     * @return the cell holding a live x, or -1 if it is not present.
+     */
+    private int findPos( E x )
+    {
+        int hash = hasher.spread( x.hashCode( ) );
+        int probeCount = 1;
+        int offset = 1;
+        int currentPos = myhash( hash );
+        int found = -1;
+
+        while( control[ currentPos ] != EMPTY )
+        {
+            if( control[ currentPos ] == LIVE && hashes[ currentPos ] == hash
+                    && elements[ currentPos ].equals( x ) )
+            {
+                found = currentPos;
+                break;
+            }
+            probeCount++;
+            currentPos += offset;  // Compute ith probe
+            offset += 2;
+            if( currentPos >= elements.length )
+                currentPos -= elements.length;
+        }
+        recordOperation( probeCount );
+        if( found != -1 )
+            stats.recordHit( );
+        else
+            stats.recordMiss( );
+
+        return found;
+    }
+
+    /**
+     * Rebuild the hash table at its current capacity, dropping every lazily deleted cell.
+     */
+    public void compact( )
+    {
+        rehash( elements.length );
+    }
+
+    /**
+     * Set the strategy that spreads hashCodes before they are reduced to a cell.
+     * @param hasher the spreader to use, Hasher.IDENTITY by default.
+     */
+    public void setHasher( Hasher hasher )
+    {
+        this.hasher = hasher;
+        if( currentActiveEntries > 0 )
+        {
+            // Cached hashes were spread by the old hasher; recompute them
+            for( int i = 0; i < elements.length; i++ )
+                if( control[ i ] == LIVE )
+                    hashes[ i ] = hasher.spread( elements[ i ].hashCode( ) );
+            rehash( elements.length );
+        }
+    }
+
+    /**
+     * Rebuild the hash table into new arrays. The cached hashes are reused, so no hashCode or equals calls are made.
+     * @param newSize the approximate size of the new arrays.
+     */
+    private void rehash( int newSize )
+    {
+        Object [ ] oldElements = elements;
+        byte [ ] oldControl = control;
+        int [ ] oldHashes = hashes;
+
+        allocateArrays( newSize );
+        occupiedCt = 0;
+        deletedCt = 0;
+        modCount++;
+        stats.recordRehash( );
+
+        // Resets the average probe count
+        this.totalUses = 0;
+        this.totalProbeCount = 0;
+
+        for( int i = 0; i < oldElements.length; i++ )
+            if( oldControl[ i ] == LIVE )
+            {
+                int offset = 1;
+                int currentPos = myhash( oldHashes[ i ] );
+                while( control[ currentPos ] != EMPTY )
+                {
+                    currentPos += offset;  // Compute ith probe
+                    offset += 2;
+                    if( currentPos >= elements.length )
+                        currentPos -= elements.length;
+                }
+                place( currentPos, oldElements[ i ], oldHashes[ i ] );
+                occupiedCt++;
+            }
+    }
+
+    private void recordOperation( int probeCount )
+    {
+        this.totalProbeCount += probeCount;
+        this.totalUses++;
+        stats.recordProbes( probeCount );
+    }
+
+    /**
+     * Returns the average probe count per operation since the last rehash.
+     * @return The average probe count per operation
+     */
+    public float getAverageProbeCount() {
+        return (float) this.totalProbeCount / this.totalUses;
+    }
+
+    /**
+     * Returns a snapshot of the probe and occupancy statistics, with the same reset rules as HashTable.
+     * @return statistics that later operations will not change
+     */
+    public ProbeStats getStatistics( )
+    {
+        return stats.snapshot( currentActiveEntries, elements.length, deletedCt );
+    }
+
+    /**
+     * Clear the counters behind getStatistics.
+     */
+    public void resetStatistics( )
+    {
+        stats.reset( );
+    }
+
+    /**
+     * Returns an ArrayList of all elements in the table
+     * @return ArrayList of all active elements in the table
+     */
+    @SuppressWarnings( "unchecked" )
+    public ArrayList<E> getAll() {
+        ArrayList<E> allData = new ArrayList<>(currentActiveEntries);
+        for (int i = 0; i < elements.length; i++) {
+            if (control[i] == LIVE) {
+                allData.add((E) elements[i]);
+            }
+        }
+        return allData;
+    }
+
+    public String toString (int limit){
+        StringBuilder sb = new StringBuilder();
+        int ct=0;
+        for (int i=0; i < elements.length && ct < limit; i++){
+            if (control[i] == LIVE) {
+                sb.append( i + ": " + elements[i] + "\n" );
+                ct++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a fail-fast iterator that walks the backing arrays directly.
+     * @return an iterator over the live elements, in table order.
+     */
+    public Iterator<E> iterator( )
+    {
+        return new Iterator<E>( )
+        {
+            private final int expectedModCount = modCount;
+            private int nextPos = advance( 0 );
+
+            private int advance( int pos )
+            {
+                while( pos < control.length && control[ pos ] != LIVE )
+                    pos++;
+                return pos;
+            }
+
+            public boolean hasNext( )
+            {
+                return nextPos < control.length;
+            }
+
+            @SuppressWarnings( "unchecked" )
+            public E next( )
+            {
+                if( modCount != expectedModCount )
+                    throw new ConcurrentModificationException( );
+                if( nextPos >= control.length )
+                    throw new NoSuchElementException( );
+                E element = (E) elements[ nextPos ];
+                nextPos = advance( nextPos + 1 );
+                return element;
+            }
+        };
+    }
+
+    /**
+     * Remove from the hash table.
+     * @param x the item to remove.
+     * @return true if item removed
+     */
+    public boolean remove( E x )
+    {
+        int currentPos = findPos( x );
+        if( currentPos == -1 )
+            return false;
+
+        control[ currentPos ] = DELETED;
+        elements[ currentPos ] = null;
+        currentActiveEntries--;
+        deletedCt++;
+        modCount++;
+        stats.recordRemove( );
+        return true;
+    }
+
+    /**
+     * Get current size.
+     * @return the size.
+     */
+    public int size( )
+    {
+        return currentActiveEntries;
+    }
+
+    /**
+     * Get length of internal table.
+     * @return the size.
+     */
+    public int capacity( )
+    {
+        return elements.length;
+    }
+
+    /**
+     * Find an item in the hash table.
+     * @param x the item to search for.
+     * @return true if item is found
+     */
+    public boolean contains( E x )
+    {
+        return findPos( x ) != -1;
+    }
+
+    /**
+     * Find an item in the hash table.
+     * @param x the item to search for.
+     * @return the matching item.
+     */
+    @SuppressWarnings( "unchecked" )
+    public E find( E x )
+    {
+        int currentPos = findPos( x );
+        return currentPos == -1 ? null : (E) elements[ currentPos ];
+    }
+
+    /**
+     * Make the hash table logically empty.
+     */
+    public void makeEmpty( )
+    {
+        occupiedCt = 0;
+        deletedCt = 0;
+        currentActiveEntries = 0;
+        modCount++;
+        java.util.Arrays.fill( elements, null );
+        java.util.Arrays.fill( control, EMPTY );
+    }
+
+    private int myhash( int hash )
+    {
+        int hashVal = hash % elements.length;
+        if( hashVal < 0 )
+            hashVal += elements.length;
+
+        return hashVal;
+    }
+
+    /**
+     * Internal method to allocate the parallel arrays.
+     * @param arraySize the size of the arrays.
+     */
+    private void allocateArrays( int arraySize )
+    {
+        int length = HashTable.nextPrime( arraySize );
+        elements = new Object[ length ];
+        control = new byte[ length ];
+        hashes = new int[ length ];
+    }
+
+    private static final int DEFAULT_TABLE_SIZE = 101;
+    private static final double COMPACT_TOMBSTONE_FRACTION = 0.5; // Deleted share of occupied cells that compacts instead of growing
+
+    private static final byte EMPTY = 0;
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+
+    private Object [ ] elements;    // The elements, valid where control is LIVE
+    private byte [ ] control;       // EMPTY, LIVE or DELETED for each cell
+    private int [ ] hashes;         // Spread hash code of each element
+    private int occupiedCt;         // The number of occupied cells: live or deleted
+    private int deletedCt;          // The number of lazily deleted cells
+    private int currentActiveEntries;  // Current size
+    private int modCount;           // Structural changes, for fail-fast iteration
+
+    private long totalProbeCount;   // Probes since the last rehash, for getAverageProbeCount
+    private long totalUses;
+    private final ProbeStats stats = new ProbeStats( );
+    private Hasher hasher = Hasher.IDENTITY;
+}
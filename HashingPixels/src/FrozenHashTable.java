@@ -0,0 +1,228 @@
+
+// Frozen perfect-hash table class
+//
+// CONSTRUCTION: from HashTable.freeze( ) or freeze( keyHash )
+//
+// ******************PUBLIC OPERATIONS*********************
+// bool contains( x )     --> Return true if x is present
+// E find( x )            --> Return the item equal to x, with one probe
+// int size( )            --> Number of items
+// ArrayList getAll( )    --> Copy of all items
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable hash table built from a finished HashTable with a minimal perfect hash.
+ * Uses the hash and displace scheme (CHD): the items are split into buckets of about
+ * BUCKET_SIZE by one hash function, and each bucket gets a displacement, chosen while
+ * building, that sends its items to cells no other item uses. There are exactly as many
+ * cells as items, so find hashes twice, reads one displacement and calls equals on one cell.
+ * Items whose key hash is shared with another item cannot be told apart by any
+ * displacement, so they go in a small overflow table that is only searched when it is
+ * not empty. Freeze with a key hash that is unique per item to keep every lookup to one cell.
+ * Note that all "matching" is based on the equals method.
+ */
+public class FrozenHashTable<E>
+{
+    /**
+     * Build the perfect hash over the items of a table.
+     * @param source the table to copy; later changes to it do not affect this one.
+     * @param keyHash hash of each item; equal items must have equal key hashes.
+     */
+    FrozenHashTable( HashTable<E> source, ToIntFunction<? super E> keyHash )
+    {
+        this.keyHash = keyHash;
+        ArrayList<E> items = source.getAll( );
+        int n = items.size( );
+
+        // Sort by key hash; items sharing one can never be separated, so they go to the overflow table
+        long [ ] byHash = new long[ n ];
+        for( int i = 0; i < n; i++ )
+            byHash[ i ] = (long) keyHash.applyAsInt( items.get( i ) ) << 32 | i;
+        Arrays.sort( byHash );
+        overflow = new HashTable<>( 1 );
+        int [ ] perfect = new int[ n ];
+        int m = 0;
+        for( int i = 0; i < n; i++ )
+        {
+            int hash = (int) ( byHash[ i ] >> 32 );
+            boolean shared = ( i > 0 && (int) ( byHash[ i - 1 ] >> 32 ) == hash )
+                    || ( i + 1 < n && (int) ( byHash[ i + 1 ] >> 32 ) == hash );
+            if( shared )
+                overflow.insert( items.get( (int) byHash[ i ] ) );
+            else
+                perfect[ m++ ] = (int) byHash[ i ];
+        }
+
+        int bucketCount = Math.max( 1, ( m + BUCKET_SIZE - 1 ) / BUCKET_SIZE );
+        cells = new Object[ Math.max( 1, m ) ];
+        displacements = new int[ bucketCount ];
+
+        // Group the items by bucket, then place the biggest buckets first while most cells are free
+        List<List<Integer>> buckets = new ArrayList<>( bucketCount );
+        for( int b = 0; b < bucketCount; b++ )
+            buckets.add( new ArrayList<>( BUCKET_SIZE ) );
+        for( int i = 0; i < m; i++ )
+            buckets.get( bucketOf( keyHash.applyAsInt( items.get( perfect[ i ] ) ) ) ).add( perfect[ i ] );
+        Integer [ ] order = new Integer[ bucketCount ];
+        for( int b = 0; b < bucketCount; b++ )
+            order[ b ] = b;
+        Arrays.sort( order, ( b1, b2 ) -> buckets.get( b2 ).size( ) - buckets.get( b1 ).size( ) );
+
+        boolean [ ] taken = new boolean[ cells.length ];
+        int [ ] slots = new int[ BUCKET_SIZE ];
+        int nextFree = 0;
+        for( int b : order )
+        {
+            List<Integer> bucket = buckets.get( b );
+            if( bucket.isEmpty( ) )
+                break;
+            if( bucket.size( ) == 1 )
+            {
+                // A lone item can take any free cell, so store the cell itself
+                while( taken[ nextFree ] )
+                    nextFree++;
+                taken[ nextFree ] = true;
+                cells[ nextFree ] = items.get( bucket.get( 0 ) );
+                displacements[ b ] = -( nextFree + 1 );
+                continue;
+            }
+            if( slots.length < bucket.size( ) )
+                slots = new int[ bucket.size( ) ];
+            displacements[ b ] = findDisplacement( bucket, items, taken, slots );
+            for( int i = 0; i < bucket.size( ); i++ )
+            {
+                taken[ slots[ i ] ] = true;
+                cells[ slots[ i ] ] = items.get( bucket.get( i ) );
+            }
+        }
+    }
+
+    /**
+     * Try displacements until every item of a bucket lands on a different free cell.
+     * @param slots receives the cell of each item for the displacement returned.
+     * @return the displacement.
+     */
+    private int findDisplacement( List<Integer> bucket, ArrayList<E> items, boolean [ ] taken, int [ ] slots )
+    {
+        for( int d = 0; d < MAX_DISPLACEMENT; d++ )
+        {
+            boolean fits = true;
+            for( int i = 0; i < bucket.size( ) && fits; i++ )
+            {
+                slots[ i ] = cellOf( keyHash.applyAsInt( items.get( bucket.get( i ) ) ), d );
+                fits = !taken[ slots[ i ] ];
+                for( int j = 0; j < i && fits; j++ )
+                    fits = slots[ j ] != slots[ i ];
+            }
+            if( fits )
+                return d;
+        }
+        throw new IllegalStateException( "No displacement found for a bucket of " + bucket.size( ) + " items" );
+    }
+
+    private int bucketOf( int hash )
+    {
+        return Math.floorMod( Hasher.MURMUR3.spread( hash ), displacements.length );
+    }
+
+    private int cellOf( int hash, int displacement )
+    {
+        // A second hash function, independent of bucketOf, that the displacement reseeds
+        return Math.floorMod( Hasher.MURMUR3.spread( hash ^ CELL_SEED ^ displacement * 0x9E3779B9 ), cells.length );
+    }
+
+    /**
+     * Find an item in the table, looking at exactly one cell unless the overflow table is in use.
+     * @param x the item to search for.
+     * @return the matching item, or null.
+     */
+    @SuppressWarnings( "unchecked" )
+    public E find( E x )
+    {
+        int hash = keyHash.applyAsInt( x );
+        int d = displacements[ bucketOf( hash ) ];
+        Object candidate = cells[ d < 0 ? -d - 1 : cellOf( hash, d ) ];
+        if( candidate != null && candidate.equals( x ) )
+            return (E) candidate;
+        return overflow.size( ) == 0 ? null : overflow.find( x );
+    }
+
+    /**
+     * Find an item in the table.
+     * @param x the item to search for.
+     * @return true if item is found
+     */
+    public boolean contains( E x )
+    {
+        return find( x ) != null;
+    }
+
+    /**
+     * Get current size.
+     * @return the size.
+     */
+    public int size( )
+    {
+        return ( cells[ 0 ] == null ? 0 : cells.length ) + overflow.size( );
+    }
+
+    /**
+     * Get the number of items that share their key hash and so need the overflow table.
+     * @return the overflow size.
+     */
+    public int overflowSize( )
+    {
+        return overflow.size( );
+    }
+
+    /**
+     * Returns an ArrayList of all elements in the table
+     * @return ArrayList of all elements in the table
+     */
+    @SuppressWarnings( "unchecked" )
+    public ArrayList<E> getAll() {
+        ArrayList<E> allData = new ArrayList<>(size());
+        for (Object cell : cells) {
+            if (cell != null) {
+                allData.add((E) cell);
+            }
+        }
+        allData.addAll(overflow.getAll());
+        return allData;
+    }
+
+    private static final int BUCKET_SIZE = 4;             // Average items per bucket
+    private static final int MAX_DISPLACEMENT = 1 << 24;  // Displacements tried per bucket before giving up
+    private static final int CELL_SEED = 0x5bd1e995;
+
+    private final ToIntFunction<? super E> keyHash;
+    private final int [ ] displacements;  // Per bucket: a displacement, or -( cell + 1 ) for a bucket of one item
+    private final Object [ ] cells;       // One item per cell, no empty cells unless the table is empty
+    private final HashTable<E> overflow;  // Items whose key hash another item shares
+
+    // Simple main
+    public static void main( String [ ] args )
+    {
+        HashTable<Integer> table = new HashTable<>( );
+        java.util.Random r = new java.util.Random( 7 );
+        for( int i = 0; i < 200000; i++ )
+            table.insert( r.nextInt( 1000000 ) );
+        FrozenHashTable<Integer> frozen = table.freeze( );
+        for( int i = 0; i < 1000000; i++ )
+            if( frozen.contains( i ) != table.contains( i ) )
+                System.out.println( "Tables disagree about " + i );
+        System.out.println( "Frozen " + frozen.size( ) + " of " + table.size( ) + " items, overflow " + frozen.overflowSize( ) );
+
+        // ColorMap's hashCode is r + g + b, so most cubes share it; freeze them by their packed key instead
+        HashTable<ColorMap> cubes = new HashTable<>( );
+        for( int key = 0; key < 1 << 15; key += 7 )
+            cubes.insert( ColorMap.fromKey( key, 6 ) );
+        System.out.println( "ColorMaps by hashCode: overflow " + cubes.freeze( ).overflowSize( )
+                + ", by key: overflow " + cubes.freeze( ColorMap::key ).overflowSize( ) + " of " + cubes.size( ) );
+    }
+}
@@ -7,18 +7,62 @@
 // bool insert( x )       --> Insert x
 // bool remove( x )       --> Remove x
 // bool contains( x )     --> Return true if x is present
+// E find( x )            --> Return the item equal to x
+// E computeIfAbsent( x, f ) --> Find x, or insert f( x ), in one probe
+// Iterator iterator( )   --> Walk the elements without copying
+// ArrayList topK( k, c ) --> The k largest elements, largest first
 // void makeEmpty( )      --> Remove all items
+// void compact( )        --> Drop lazily deleted cells
+// void ensureCapacity( n ) --> Grow once so n items fit without resizing
+// void trimToSize( )     --> Shrink to the smallest array that holds the items
+// void setShrinkLoadFactor( f ) --> Shrink after a remove leaves the table below f full
+// void setIncrementalRehash( b ) --> Spread resizes over later operations
+// ProbeStats getStatistics( )    --> Snapshot of probe and occupancy counters
+// void setHasher( h )            --> Choose how hashCodes are spread
+// FrozenHashTable freeze( )      --> Immutable copy with one-probe lookups
 
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * Probing table implementation of hash tables.
  * Note that all "matching" is based on the equals method.
  * @author Mark Allen Weiss
  */
-public class HashTable<E>
+public class HashTable<E> implements Iterable<E>
 {
+    /**
+     * How collisions are resolved, fixed when the table is built.
+     * QUADRATIC probes with lazy deletion and keeps the table at most half full.
+     * ROBIN_HOOD probes linearly, keeps each entry's distance from its home cell,
+     * lets a far-from-home entry take the cell of a closer one, stops a miss as soon as
+     * it passes an entry closer to home than the search, and deletes by shifting back
+     * so there are no deleted cells. It runs up to ROBIN_HOOD_MAX_LOAD full.
+     */
+    public enum ProbingMode { QUADRATIC, ROBIN_HOOD }
+
+    /**
+     * How the array length is chosen, fixed when the table is built.
+     * PRIME sizes to a prime and reduces hashes with a modulo; quadratic probing steps by i squared.
+     * POWER_OF_TWO sizes to a power of two and reduces hashes with a bit mask, so resizes skip
+     * the prime search and each probe skips the division. Because a mask only keeps the low bits,
+     * hashes are spread with Hasher.MURMUR3 by default, and quadratic probing steps by the
+     * triangular numbers i( i + 1 ) / 2, which visit every cell of a power-of-two table.
+     */
+    public enum SizingMode { PRIME, POWER_OF_TWO }
+
     /**
      * Construct the hash table.
      */
@@ -33,31 +77,154 @@ public class HashTable<E>
      */
     public HashTable( int size )
     {
+        this( size, ProbingMode.QUADRATIC );
+    }
+
+    /**
+     * Construct the hash table.
+     * @param size the approximate initial size.
+     * @param probing the collision resolution to use.
+     */
+    public HashTable( int size, ProbingMode probing )
+    {
+        this( size, probing, SizingMode.PRIME );
+    }
+
+    /**
+     * Construct the hash table.
+     * @param size the approximate initial size.
+     * @param probing the collision resolution to use.
+     * @param sizing how the array length is chosen.
+     */
+    public HashTable( int size, ProbingMode probing, SizingMode sizing )
+    {
+        this.probing = probing;
+        this.sizing = sizing;
+        this.probeStep = sizing == SizingMode.POWER_OF_TWO ? 1 : 2;
+        if( sizing == SizingMode.POWER_OF_TWO )
+            this.hasher = Hasher.MURMUR3;
         allocateArray( size );
+        minCapacity = array.length;
         doClear( );
     }
 
     /**
      * Insert into the hash table. If the item is
      * already present, do nothing.
-     * Implementation issue: This routine doesn't allow you to use a lazily deleted location.  Do you see why?
      * @param x the item to insert.
      */
     public boolean insert( E x )
     {
-        // Insert x as active
-        int currentPos = findPos( x );
-        if( isActive( currentPos ) )
-            return false;
+        int before = currentActiveEntries;
+        insertEntry( x, null );
+        return currentActiveEntries > before;
+    }
+
+    /**
+     * Find an item, inserting one made from it if it is not present, with a single probe.
+     * Use computeIfAbsent( x, Function.identity( ) ) to insert x itself.
+     * factory runs before the table changes, so if it throws, x is left out.
+     * @param x the item to search for.
+     * @param factory makes the item to insert from x; it must be equal to x.
+     * @return the item already in the table, or the one just inserted.
+     */
+    public E computeIfAbsent( E x, Function<? super E, ? extends E> factory )
+    {
+        return insertEntry( x, factory ).element;
+    }
+
+    /**
+     * Find the entry for x, inserting a new entry if it is not present.
+     * This is the one probe behind insert and computeIfAbsent.
+     * @param x the item to search for.
+     * @param factory makes the item to insert from x, or null to insert x itself.
+     * @return the entry holding x, new or old.
+     */
+    HashEntry<E> insertEntry( E x, Function<? super E, ? extends E> factory )
+    {
+        migrateStep( );
+        probesThisOp = 0;
+        int before = currentActiveEntries;
+        HashEntry<E> entry = null;
+        int currentPos;
+        if( oldArray != null && ( currentPos = locateUnmoved( x ) ) != -1 )
+            entry = oldArray[ currentPos ];
+        else if( probing == ProbingMode.ROBIN_HOOD )
+            entry = robinHoodInsert( x, factory );
+        else
+            entry = quadraticInsert( x, factory );
+
+        if( currentActiveEntries > before )
+            stats.recordInsert( );
+        else
+            stats.recordHit( );
+        recordOperation( );
+        return entry;
+    }
+
+    /**
+     * Quadratic probing insertion.
+     * The probe keeps going past lazily deleted locations until it reaches an empty cell,
+     * so x cannot already be further down the chain, and then reuses the first deleted location it saw.
+     * @param x the item to insert.
+     * @param factory makes the item to insert from x, or null to insert x itself.
+     * @return the entry holding x, new or old.
+     */
+    private HashEntry<E> quadraticInsert( E x, Function<? super E, ? extends E> factory )
+    {
+        int probeCount = 1;
+        int offset = 1;
+        int currentPos = myhash( x, array.length );
+        int tombstonePos = -1;
+        boolean collided = array[ currentPos ] != null;
+
+        while( array[ currentPos ] != null )
+        {
+            if( array[ currentPos ].isActive )
+            {
+                if( array[ currentPos ].element.equals( x ) )
+                    break;
+            }
+            else if( tombstonePos == -1 )
+                tombstonePos = currentPos;
+
+            probeCount++;
+            currentPos += offset;  // Compute ith probe
+            offset += probeStep;
+            if( currentPos >= array.length )
+                currentPos -= array.length;
+        }
+        probesThisOp += probeCount;
 
-        array[ currentPos ] = new HashEntry<>( x, true );
+        if( isActive( array, currentPos ) )
+            return array[ currentPos ];
+
+        HashEntry<E> entry = new HashEntry<>( factory == null ? x : factory.apply( x ), true );
         currentActiveEntries++;
+        modCount++;
+        if( collided )
+            stats.recordCollision( );
+        if( tombstonePos != -1 )
+        {
+            // Reuse a deleted location; the occupied count does not change
+            array[ tombstonePos ] = entry;
+            deletedCt--;
+            return entry;
+        }
+
+        array[ currentPos ] = entry;
 
         // Rehash; see Section 5.5
+        // When most occupied cells are deleted, rebuilding at the same size is enough
         if( ++occupiedCt > array.length / 2 )
-            rehash( );
+        {
+            if( deletedCt > occupiedCt * COMPACT_TOMBSTONE_FRACTION )
+                compact( );
+            else
+                rehash( 2 * array.length );
+        }
 
-        return true;
+        return entry;
     }
 
     public String toString (int limit){
@@ -69,68 +236,443 @@ public class HashTable<E>
                 ct++;
             }
         }
+        for (int i=migratePos; oldArray != null && i < oldArray.length && ct < limit; i++){
+            if (oldArray[i]!=null && oldArray[i].isActive) {
+                sb.append( "old " + i + ": " + oldArray[i].element + "\n" );
+                ct++;
+            }
+        }
         return sb.toString();
     }
 
     /**
-     * Expand the hash table.
+     * Robin Hood insertion. Walks linearly from the home cell until it finds x, an empty cell,
+     * or an entry closer to its home than the search has come, which also proves x is not present.
+     * The new entry is then placed there and the entries it displaces move on.
+     * @param x the item to insert.
+     * @param factory makes the item to insert from x, or null to insert x itself.
+     * @return the entry holding x, new or old.
      */
-    private void rehash( )
+    private HashEntry<E> robinHoodInsert( E x, Function<? super E, ? extends E> factory )
     {
-        HashEntry<E> [ ] oldArray = array;
+        int probeCount = 1;
+        int currentPos = myhash( x, array.length );
+        int distance = 0;
+        boolean collided = array[ currentPos ] != null;
 
-        // Create a new double-sized, empty table
-        allocateArray( 2 * oldArray.length );
+        while( array[ currentPos ] != null && array[ currentPos ].probeDistance >= distance )
+        {
+            if( array[ currentPos ].probeDistance == distance && array[ currentPos ].element.equals( x ) )
+            {
+                probesThisOp += probeCount;
+                return array[ currentPos ];
+            }
+            probeCount++;
+            distance++;
+            if( ++currentPos == array.length )
+                currentPos = 0;
+        }
+        probesThisOp += probeCount;
+
+        HashEntry<E> entry = new HashEntry<>( factory == null ? x : factory.apply( x ), true );
+        robinHoodPlace( entry, currentPos, distance );
+        currentActiveEntries++;
+        modCount++;
+        if( collided )
+            stats.recordCollision( );
+
+        if( ++occupiedCt > array.length * ROBIN_HOOD_MAX_LOAD )
+            rehash( 2 * array.length );
+
+        return entry;
+    }
+
+    /**
+     * Put an entry into the current array with Robin Hood swapping: whenever the entry
+     * being placed is further from home than the one in the cell, they swap and the
+     * displaced entry carries on.
+     * @param carried the entry to place.
+     * @param currentPos the cell to start at.
+     * @param distance how far currentPos is from the home cell of carried.
+     */
+    private void robinHoodPlace( HashEntry<E> carried, int currentPos, int distance )
+    {
+        while( array[ currentPos ] != null )
+        {
+            HashEntry<E> resident = array[ currentPos ];
+            if( resident.probeDistance < distance )
+            {
+                carried.probeDistance = distance;
+                array[ currentPos ] = carried;
+                carried = resident;
+                distance = resident.probeDistance;
+            }
+            distance++;
+            if( ++currentPos == array.length )
+                currentPos = 0;
+        }
+        carried.probeDistance = distance;
+        array[ currentPos ] = carried;
+    }
+
+    /**
+     * Put an entry moved by a rehash into the current array.
+     * Moved entries are already distinct, so no equals calls are made and no probes are recorded.
+     * @param entry the active entry to move.
+     */
+    private void reinsert( HashEntry<E> entry )
+    {
+        int currentPos = myhash( entry.element, array.length );
+        if( probing == ProbingMode.ROBIN_HOOD )
+            robinHoodPlace( entry, currentPos, 0 );
+        else
+        {
+            int offset = 1;
+            while( array[ currentPos ] != null )
+            {
+                currentPos += offset;  // Compute ith probe
+                offset += probeStep;
+                if( currentPos >= array.length )
+                    currentPos -= array.length;
+            }
+            array[ currentPos ] = entry;
+        }
+        occupiedCt++;
+        currentActiveEntries++;
+    }
+
+    /**
+     * Robin Hood search. Stops at an empty cell or at an entry closer to its home than
+     * the search has come, since x would have displaced that entry.
+     * Entries marked deleted only appear in an old array that is being moved out.
+     * @param tab the array to search.
+     * @param x the item to search for.
+     * @param movedBefore cells of tab below this were moved to the current array, which
+     * rewrote their probe distances, so the search only passes over them.
+     * @return the position of an active x, or -1 if it is not present.
+     */
+    private int robinHoodFindPos( HashEntry<E> [ ] tab, E x, int movedBefore )
+    {
+        int probeCount = 1;
+        int currentPos = myhash( x, tab.length );
+        int distance = 0;
+        int found = -1;
+
+        while( tab[ currentPos ] != null )
+        {
+            if( currentPos >= movedBefore )
+            {
+                if( tab[ currentPos ].probeDistance < distance )
+                    break;
+                if( tab[ currentPos ].probeDistance == distance && tab[ currentPos ].element.equals( x ) )
+                {
+                    if( tab[ currentPos ].isActive )
+                        found = currentPos;
+                    break;
+                }
+            }
+            probeCount++;
+            distance++;
+            if( ++currentPos == tab.length )
+                currentPos = 0;
+        }
+        probesThisOp += probeCount;
+
+        return found;
+    }
+
+    /**
+     * Robin Hood deletion. Shifts the following entries back one cell until an empty cell
+     * or an entry already in its home cell, so no deleted marker is left behind.
+     * @param currentPos the position of the entry to remove.
+     */
+    private void robinHoodRemoveAt( int currentPos )
+    {
+        int nextPos = currentPos + 1 == array.length ? 0 : currentPos + 1;
+        while( array[ nextPos ] != null && array[ nextPos ].probeDistance > 0 )
+        {
+            array[ currentPos ] = array[ nextPos ];
+            array[ currentPos ].probeDistance--;
+            currentPos = nextPos;
+            nextPos = currentPos + 1 == array.length ? 0 : currentPos + 1;
+        }
+        array[ currentPos ] = null;
+        occupiedCt--;
+        currentActiveEntries--;
+        modCount++;
+    }
+
+    /**
+     * Rebuild the hash table at its current capacity, dropping every lazily deleted entry.
+     * Probe chains that ran through deleted cells get short again without growing the table.
+     */
+    public void compact( )
+    {
+        rehash( array.length );
+    }
+
+    /**
+     * Grow the table once, if needed, so it holds n items without another resize.
+     * Lets a caller that knows its final size skip the doublings on the way there.
+     * @param n the number of items the table should hold.
+     */
+    public void ensureCapacity( int n )
+    {
+        int newLength = lengthFor( n );
+        if( newLength > array.length )
+            rehash( newLength );
+    }
+
+    /**
+     * Rebuild the table at the smallest array that holds its items, dropping deleted cells.
+     * Later shrinking may go down to this size, even below the size the table was built with.
+     */
+    public void trimToSize( )
+    {
+        int newLength = lengthFor( Math.max( 1, currentActiveEntries ) );
+        minCapacity = Math.min( minCapacity, newLength );
+        if( newLength < array.length || deletedCt > 0 || oldArray != null )
+            rehash( newLength );
+    }
+
+    /**
+     * Set the low-water load: when a remove leaves fewer than f times capacity items,
+     * the table is rebuilt a quarter full, but never smaller than it was built.
+     * @param f the low-water load factor, from 0 (never shrink) up to but not including 0.25.
+     */
+    public void setShrinkLoadFactor( double f )
+    {
+        if( !( f >= 0 && f < 0.25 ) )
+            throw new IllegalArgumentException( "shrink load factor must be in [0, 0.25): " + f );
+        shrinkLoadFactor = f;
+    }
+
+    /**
+     * Smallest array length that holds n items without a resize.
+     * @param n the number of items.
+     * @return a legal array length for the sizing mode.
+     */
+    private int lengthFor( int n )
+    {
+        int needed = probing == ProbingMode.ROBIN_HOOD
+                ? (int) Math.ceil( n / ROBIN_HOOD_MAX_LOAD ) + 1
+                : 2 * n + 1;
+        return sizing == SizingMode.POWER_OF_TWO ? nextPowerOfTwo( needed ) : nextPrime( needed );
+    }
+
+    /**
+     * Turn incremental resizing on or off.
+     * When on, a resize that grows the table only allocates the new array; the entries of the
+     * old array are moved MIGRATE_STEP cells at a time by each later insert, remove or find,
+     * and lookups check both arrays until the move is done. Shrinking and compacting still
+     * move everything at once. Turning it off finishes any move in progress.
+     * @param incremental true to spread each resize over later operations.
+     */
+    public void setIncrementalRehash( boolean incremental )
+    {
+        this.incrementalRehash = incremental;
+        if( !incremental )
+            finishMigration( );
+    }
+
+    /**
+     * Set the strategy that spreads hashCodes before they are reduced to a cell.
+     * Every entry moves, so the table is rebuilt at its current capacity.
+     * Compare getStatistics( ).getCollisions( ) across hashers to pick one for a key type.
+     * @param hasher the spreader to use, Hasher.IDENTITY by default.
+     */
+    public void setHasher( Hasher hasher )
+    {
+        finishMigration( );
+        this.hasher = hasher;
+        if( currentActiveEntries > 0 )
+        {
+            // The old cells were placed with the previous hasher, so they cannot be searched later
+            rehash( array.length );
+            finishMigration( );
+        }
+    }
+
+    /**
+     * Rebuild the hash table into a new array.
+     * @param newSize the approximate size of the new array.
+     */
+    private void rehash( int newSize )
+    {
+        finishMigration( );
+        modCount++;
+        stats.recordRehash( );
+        HashEntry<E> [ ] previous = array;
+
+        // Create a new empty table
+        allocateArray( newSize );
         occupiedCt = 0;
-        currentActiveEntries = 0;
+        deletedCt = 0;
 
         // Resets the average probe count
         this.totalUses = 0;
         this.totalProbeCount = 0;
 
-        // Copy table over
-        for( HashEntry<E> entry : oldArray )
+        // Only a growing resize is spread out: a new array no bigger than the old one could fill
+        // up with new inserts before the old entries are all moved, and then have no room for them
+        if( incrementalRehash && array.length > previous.length )
+        {
+            // Entries stay where they are and are moved by later operations
+            oldArray = previous;
+            migratePos = 0;
+            return;
+        }
+
+        // Copy table over, moving the entries themselves so anything holding one stays valid
+        currentActiveEntries = 0;
+        for( HashEntry<E> entry : previous )
             if( entry != null && entry.isActive )
-                insert( entry.element );
+                reinsert( entry );
+    }
+
+    /**
+     * Move the next MIGRATE_STEP cells of the old array, if a resize is in progress.
+     */
+    private void migrateStep( )
+    {
+        if( oldArray != null )
+            migrate( MIGRATE_STEP );
+    }
+
+    /**
+     * Move every remaining entry of the old array, if a resize is in progress.
+     */
+    private void finishMigration( )
+    {
+        if( oldArray != null )
+            migrate( oldArray.length );
+    }
+
+    /**
+     * Move up to cells cells of the old array into the current one.
+     * Moved cells are left in place, since clearing them would cut the probe chains
+     * of entries not moved yet; cells before migratePos are simply ignored.
+     * The old array is dropped once its last cell has been moved.
+     * @param cells the number of old cells to visit.
+     */
+    private void migrate( int cells )
+    {
+        modCount++;
+        int end = Math.min( oldArray.length, migratePos + cells );
+        for( ; migratePos < end; migratePos++ )
+        {
+            HashEntry<E> entry = oldArray[ migratePos ];
+            if( entry != null && entry.isActive )
+            {
+                currentActiveEntries--;
+                reinsert( entry );
+            }
+        }
+        if( migratePos == oldArray.length )
+            oldArray = null;
     }
 
     /**
      * Method that performs quadratic probing resolution.
+     * Gives up after tab.length probes, since by then every cell the probe sequence can
+     * reach has been seen. Only an old array being moved out can be that full: its moved
+     * cells are left in place, so a miss there may never reach an empty cell.
+     * @param tab the array to search.
      * @param x the item to search for.
-     * @return the position where the search terminates.
+     * @return the position where the search terminates, or -1 if it gave up.
      * Never returns an inactive location.
      */
-    private int findPos( E x )
+    private int findPos( HashEntry<E> [ ] tab, E x )
     {
         int probeCount = 1;
         int offset = 1;
-        int currentPos = myhash( x );
+        int currentPos = myhash( x, tab.length );
 
-        while( array[ currentPos ] != null &&
-                !array[ currentPos ].element.equals( x ) )
+        while( tab[ currentPos ] != null &&
+                !tab[ currentPos ].element.equals( x ) )
         {
+            if( probeCount == tab.length )
+            {
+                currentPos = -1;
+                break;
+            }
             probeCount++;
             currentPos += offset;  // Compute ith probe
-            offset += 2;
-            if( currentPos >= array.length )
-                currentPos -= array.length;
+            offset += probeStep;
+            if( currentPos >= tab.length )
+                currentPos %= tab.length;
         }
-        this.totalProbeCount += probeCount;
-        this.totalUses++;
+        probesThisOp += probeCount;
 
         return currentPos;
     }
 
+    /**
+     * Find the cell holding an active x, whichever probing mode is in use.
+     * @param tab the array to search, the current one or the old one being moved out.
+     * @param x the item to search for.
+     * @param movedBefore cells of tab below this were already moved out, 0 for the current array.
+     * @return the position of x, or -1 if it is not present.
+     */
+    private int locate( HashEntry<E> [ ] tab, E x, int movedBefore )
+    {
+        if( probing == ProbingMode.ROBIN_HOOD )
+            return robinHoodFindPos( tab, x, movedBefore );
+
+        int currentPos = findPos( tab, x );
+        return currentPos != -1 && isActive( tab, currentPos ) ? currentPos : -1;
+    }
+
+    /**
+     * Find an active x among the cells of the old array that have not been moved yet.
+     * @param x the item to search for.
+     * @return the position of x in oldArray, or -1 if it is not there or already moved.
+     */
+    private int locateUnmoved( E x )
+    {
+        int currentPos = locate( oldArray, x, migratePos );
+        return currentPos < migratePos ? -1 : currentPos;
+    }
+
+    /**
+     * Add the probes of the operation that just finished to the running totals.
+     */
+    private void recordOperation( )
+    {
+        this.totalProbeCount += probesThisOp;
+        this.totalUses++;
+        stats.recordProbes( probesThisOp );
+    }
+
     /**
      * Returns the average probe count needed for adding, deleting, finding, etc.
-     * The total probe count and total uses are kept track of and updated each time findPos is called
+     * The total probe count and total uses are kept track of and updated at the end of each operation
      * The average probe count restarts when rehashing occurs since that would affect, and should lower, the average
+     * Use getStatistics for totals that are kept across rehashes
      * @return The average probe count per operation
      */
     public float getAverageProbeCount() {
         return (float) this.totalProbeCount / this.totalUses;
     }
 
+    /**
+     * Returns a snapshot of the probe and occupancy statistics.
+     * The counters are kept across rehashes and makeEmpty and only cleared by resetStatistics.
+     * @return statistics that later operations will not change
+     */
+    public ProbeStats getStatistics( )
+    {
+        return stats.snapshot( currentActiveEntries, array.length, deletedCt );
+    }
+
+    /**
+     * Clear the counters behind getStatistics.
+     */
+    public void resetStatistics( )
+    {
+        stats.reset( );
+    }
+
     /**
      * Returns an ArrayList of all elements in the table
      * Iterates through the hash table and adds all active, non-null elements to an array list
@@ -143,9 +685,236 @@ public class HashTable<E>
                 allData.add(array[i].element);
             }
         }
+        for (int i = migratePos; oldArray != null && i < oldArray.length; i++) {
+            if (oldArray[i] != null && oldArray[i].isActive) {
+                allData.add(oldArray[i].element);
+            }
+        }
         return allData;
     }
 
+    /**
+     * Make an immutable copy of the table that finds any element with a single probe.
+     * Elements are told apart by their hashCode, and every element whose hashCode another
+     * element shares goes to the frozen table's slower overflow. Use freeze( keyHash ) when
+     * hashCodes repeat often: ColorMap's hashCode is r + g + b, so freeze( ColorMap::key ).
+     * @return the frozen copy.
+     */
+    public FrozenHashTable<E> freeze( )
+    {
+        return freeze( Object::hashCode );
+    }
+
+    /**
+     * Make an immutable copy of the table, with a minimal perfect hash over keyHash.
+     * @param keyHash hash of each element, ideally different for every element.
+     * @return the frozen copy.
+     */
+    public FrozenHashTable<E> freeze( ToIntFunction<? super E> keyHash )
+    {
+        return new FrozenHashTable<>( this, keyHash );
+    }
+
+    /**
+     * Returns an iterator that walks the backing array directly, without copying.
+     * Any resize still being moved is finished first, so one array holds every element.
+     * The iterator is fail-fast: an insert or remove made while it is in use,
+     * other than through the iterator, makes it throw ConcurrentModificationException.
+     * @return an iterator over the active elements, in table order.
+     */
+    public Iterator<E> iterator( )
+    {
+        finishMigration( );
+        return new TableIterator( );
+    }
+
+    /**
+     * Returns a spliterator over ranges of the backing array, which splits in half
+     * so parallel streams can work on separate parts of the table.
+     * Like iterator, it finishes any resize in progress first and is fail-fast.
+     * @return a spliterator over the active elements.
+     */
+    @Override
+    public Spliterator<E> spliterator( )
+    {
+        finishMigration( );
+        return new TableSpliterator( array, 0, array.length, modCount );
+    }
+
+    /**
+     * @return a sequential stream over the active elements.
+     */
+    public Stream<E> stream( )
+    {
+        return StreamSupport.stream( spliterator( ), false );
+    }
+
+    /**
+     * @return a parallel stream over the active elements.
+     */
+    public Stream<E> parallelStream( )
+    {
+        return StreamSupport.stream( spliterator( ), true );
+    }
+
+    private class TableIterator implements Iterator<E>
+    {
+        private final HashEntry<E> [ ] tab = array;
+        private final int expectedModCount = modCount;
+        private int nextPos = advance( 0 );  // Next active cell, or tab.length
+
+        private int advance( int pos )
+        {
+            while( pos < tab.length && ( tab[ pos ] == null || !tab[ pos ].isActive ) )
+                pos++;
+            return pos;
+        }
+
+        public boolean hasNext( )
+        {
+            return nextPos < tab.length;
+        }
+
+        public E next( )
+        {
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException( );
+            if( nextPos >= tab.length )
+                throw new NoSuchElementException( );
+            E element = tab[ nextPos ].element;
+            nextPos = advance( nextPos + 1 );
+            return element;
+        }
+    }
+
+    private class TableSpliterator implements Spliterator<E>
+    {
+        private final HashEntry<E> [ ] tab;
+        private int origin;                 // Next cell to visit
+        private final int fence;            // One past the last cell
+        private final int expectedModCount;
+
+        TableSpliterator( HashEntry<E> [ ] tab, int origin, int fence, int expectedModCount )
+        {
+            this.tab = tab;
+            this.origin = origin;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        public boolean tryAdvance( Consumer<? super E> action )
+        {
+            while( origin < fence )
+            {
+                HashEntry<E> entry = tab[ origin++ ];
+                if( entry != null && entry.isActive )
+                {
+                    action.accept( entry.element );
+                    if( modCount != expectedModCount )
+                        throw new ConcurrentModificationException( );
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void forEachRemaining( Consumer<? super E> action )
+        {
+            for( ; origin < fence; origin++ )
+            {
+                HashEntry<E> entry = tab[ origin ];
+                if( entry != null && entry.isActive )
+                    action.accept( entry.element );
+            }
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException( );
+        }
+
+        public Spliterator<E> trySplit( )
+        {
+            int mid = ( origin + fence ) >>> 1;
+            if( mid - origin < MIN_SPLIT_CELLS )
+                return null;
+            Spliterator<E> prefix = new TableSpliterator( tab, origin, mid, expectedModCount );
+            origin = mid;
+            return prefix;
+        }
+
+        public long estimateSize( )
+        {
+            // Cells left scaled by the share of cells that are active
+            return (long) ( fence - origin ) * currentActiveEntries / tab.length;
+        }
+
+        public int characteristics( )
+        {
+            return Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * Returns the k largest elements under a comparator, largest first.
+     * Keeps a min-heap of at most k elements while walking the table once,
+     * so it takes O( n log k ) time and O( k ) extra space instead of sorting everything.
+     * @param k the number of elements wanted.
+     * Among elements that compare equal at the cutoff, the ones kept depend on table order,
+     * so a comparator that only compares counts should break ties on something like a key.
+     * @param comparator the order; the elements that compare largest are returned.
+     * @return up to k elements, largest first.
+     */
+    public ArrayList<E> topK( int k, Comparator<? super E> comparator )
+    {
+        PriorityQueue<E> heap = new PriorityQueue<>( Math.max( 1, k ), comparator );
+        for( E element : this )
+            offerBounded( heap, element, k, comparator );
+        return drainLargestFirst( heap );
+    }
+
+    /**
+     * Parallel version of topK. Each part of a parallel stream over the table keeps its
+     * own bounded heap and the heaps are merged, so only O( k ) elements are kept per part.
+     * @param k the number of elements wanted.
+     * @param comparator the order; the elements that compare largest are returned.
+     * @return up to k elements, largest first.
+     */
+    public ArrayList<E> parallelTopK( int k, Comparator<? super E> comparator )
+    {
+        PriorityQueue<E> heap = parallelStream( ).collect(
+                ( ) -> new PriorityQueue<>( Math.max( 1, k ), comparator ),
+                ( h, element ) -> offerBounded( h, element, k, comparator ),
+                ( h1, h2 ) -> {
+                    for( E element : h2 )
+                        offerBounded( h1, element, k, comparator );
+                } );
+        return drainLargestFirst( heap );
+    }
+
+    /**
+     * Add element to a min-heap that holds the k largest elements seen so far.
+     */
+    private static <E> void offerBounded( PriorityQueue<E> heap, E element, int k, Comparator<? super E> comparator )
+    {
+        if( heap.size( ) < k )
+            heap.add( element );
+        else if( k > 0 && comparator.compare( element, heap.peek( ) ) > 0 )
+        {
+            heap.poll( );
+            heap.add( element );
+        }
+    }
+
+    /**
+     * Empty a min-heap into a list ordered largest first.
+     */
+    private static <E> ArrayList<E> drainLargestFirst( PriorityQueue<E> heap )
+    {
+        ArrayList<E> result = new ArrayList<>( heap.size( ) );
+        while( !heap.isEmpty( ) )
+            result.add( heap.poll( ) );
+        Collections.reverse( result );
+        return result;
+    }
+
     /**
      * Remove from the hash table.
      * @param x the item to remove.
@@ -153,15 +922,43 @@ public class HashTable<E>
      */
     public boolean remove( E x )
     {
-        int currentPos = findPos( x );
-        if( isActive( currentPos ) )
+        migrateStep( );
+        probesThisOp = 0;
+        boolean removed = true;
+        int currentPos = locate( array, x, 0 );
+        if( currentPos != -1 && probing == ProbingMode.ROBIN_HOOD )
+            robinHoodRemoveAt( currentPos );
+        else if( currentPos != -1 )
         {
             array[ currentPos ].isActive = false;
             currentActiveEntries--;
-            return true;
+            modCount++;
+            deletedCt++;
+        }
+        // The old array is only read and moved out, so a lazy delete is enough in either mode
+        else if( oldArray != null && ( currentPos = locateUnmoved( x ) ) != -1 )
+        {
+            oldArray[ currentPos ].isActive = false;
+            currentActiveEntries--;
+            modCount++;
         }
         else
-            return false;
+            removed = false;
+
+        if( removed )
+            stats.recordRemove( );
+        else
+            stats.recordMiss( );
+        recordOperation( );
+
+        // Shrink so the table is a quarter full, leaving room to grow back before the next doubling
+        if( removed && currentActiveEntries < array.length * shrinkLoadFactor && array.length > minCapacity )
+        {
+            int newLength = Math.max( minCapacity, lengthFor( 2 * currentActiveEntries ) );
+            if( newLength < array.length )
+                rehash( newLength );
+        }
+        return removed;
     }
 
     /**
@@ -189,8 +986,7 @@ public class HashTable<E>
      */
     public boolean contains( E x )
     {
-        int currentPos = findPos( x );
-        return isActive( currentPos );
+        return find( x ) != null;
     }
 
     /**
@@ -200,23 +996,48 @@ public class HashTable<E>
      */
     public E find( E x )
     {
-        int currentPos = findPos( x );
-        if (!isActive( currentPos )) {
+        HashEntry<E> entry = lookupEntry( x );
+        if (entry == null) {
             return null;
         }
         else {
-            return array[currentPos].element;
+            return entry.element;
         }
     }
 
+    /**
+     * Find the entry holding an active x in either array.
+     * @param x the item to search for.
+     * @return the entry, or null if x is not present.
+     */
+    HashEntry<E> lookupEntry( E x )
+    {
+        migrateStep( );
+        probesThisOp = 0;
+        HashEntry<E> found = null;
+        int currentPos = locate( array, x, 0 );
+        if( currentPos != -1 )
+            found = array[ currentPos ];
+        else if( oldArray != null && ( currentPos = locateUnmoved( x ) ) != -1 )
+            found = oldArray[ currentPos ];
+
+        if( found != null )
+            stats.recordHit( );
+        else
+            stats.recordMiss( );
+        recordOperation( );
+        return found;
+    }
+
     /**
      * Return true if currentPos exists and is active.
+     * @param tab the array searched by findPos.
      * @param currentPos the result of a call to findPos.
      * @return true if currentPos is active.
      */
-    private boolean isActive( int currentPos )
+    private boolean isActive( HashEntry<E> [ ] tab, int currentPos )
     {
-        return array[ currentPos ] != null && array[ currentPos ].isActive;
+        return tab[ currentPos ] != null && tab[ currentPos ].isActive;
     }
 
     /**
@@ -229,26 +1050,33 @@ public class HashTable<E>
 
     private void doClear( )
     {
+        modCount++;
         occupiedCt = 0;
+        deletedCt = 0;
+        currentActiveEntries = 0;
+        oldArray = null;
         for( int i = 0; i < array.length; i++ )
             array[ i ] = null;
     }
 
-    private int myhash( E x )
+    private int myhash( E x, int tableLength )
     {
-        int hashVal = x.hashCode( );
+        int hashVal = hasher.spread( x.hashCode( ) );
+        if( sizing == SizingMode.POWER_OF_TWO )
+            return hashVal & ( tableLength - 1 );
 
-        hashVal %= array.length;
+        hashVal %= tableLength;
         if( hashVal < 0 )
-            hashVal += array.length;
+            hashVal += tableLength;
 
         return hashVal;
     }
 
-    private static class HashEntry<E>
+    static class HashEntry<E>
     {
         public E  element;   // the element
         public boolean isActive;  // false if marked deleted
+        public int probeDistance; // cells from the home cell, used by ROBIN_HOOD
 
         public HashEntry( E e )
         {
@@ -263,13 +1091,31 @@ public class HashTable<E>
     }
 
     private static final int DEFAULT_TABLE_SIZE = 101;
+    private static final double ROBIN_HOOD_MAX_LOAD = 0.85;
+    private static final int MIN_SPLIT_CELLS = 1024; // Smallest range a spliterator will split
+    private static final int MIGRATE_STEP = 8;      // Old cells moved per operation during an incremental resize
+    private static final double COMPACT_TOMBSTONE_FRACTION = 0.5; // Deleted share of occupied cells that compacts instead of growing
+    private static final double DEFAULT_SHRINK_LOAD_FACTOR = 0.125;
 
+    private final ProbingMode probing; // Collision resolution chosen at construction
+    private final SizingMode sizing;   // Array length rule chosen at construction
+    private final int probeStep;       // Growth of the quadratic probe offset: 2 for i squared, 1 for triangular
     private HashEntry<E> [ ] array; // The array of elements
     private int occupiedCt;         // The number of occupied cells: active or deleted
+    private int deletedCt;          // The number of lazily deleted cells
     private int currentActiveEntries;                  // Current size
+    private boolean incrementalRehash;  // Spread resizes over later operations
+    private HashEntry<E> [ ] oldArray;  // Array being moved out by an incremental resize, or null
+    private int migratePos;             // Next cell of oldArray to move
+    private int minCapacity;            // Shrinking stops at this length
+    private double shrinkLoadFactor = DEFAULT_SHRINK_LOAD_FACTOR; // Load below which a remove shrinks the table
 
-    private int totalProbeCount;
-    private int totalUses;
+    private long totalProbeCount;   // Probes since the last rehash, for getAverageProbeCount
+    private long totalUses;
+    private int probesThisOp;       // Probes of the operation in progress
+    private int modCount;           // Structural changes, for fail-fast iteration
+    private final ProbeStats stats = new ProbeStats( );
+    private Hasher hasher = Hasher.IDENTITY; // Spreads hashCodes before the modulo or mask
 
     /**
      * Internal method to allocate array.
@@ -277,7 +1123,18 @@ public class HashTable<E>
      */
     private void allocateArray( int arraySize )
     {
-        array = new HashEntry[ nextPrime( arraySize ) ];
+        int length = sizing == SizingMode.POWER_OF_TWO ? nextPowerOfTwo( arraySize ) : nextPrime( arraySize );
+        array = new HashEntry[ length ];
+    }
+
+    /**
+     * Internal method to find a power of two at least as large as n.
+     * @param n the starting number (must be positive).
+     * @return a power of two larger than or equal to n.
+     */
+    static int nextPowerOfTwo( int n )
+    {
+        return n <= 1 ? 1 : Integer.highestOneBit( n - 1 ) << 1;
     }
 
     /**
@@ -286,7 +1143,7 @@ public class HashTable<E>
      * @return a prime number larger than or equal to n.
      *
      */
-    private static int nextPrime( int n )
+    static int nextPrime( int n )
     {
         if( n % 2 == 0 )
             n++;
@@ -410,6 +1267,39 @@ public class HashTable<E>
         getAllList.sort(null);
         // Should print all elements in ascending order by key
         System.out.println(getAllList);
+        System.out.println();
+
+        // Test lookups during an incremental rehash
+        // Misses must end even though moved cells stay in the old array, so this should print 0 mistakes
+        java.util.Random rnd = new java.util.Random(1);
+        HashTable<Integer> H3 = new HashTable<>(5);
+        H3.setIncrementalRehash(true);
+        java.util.HashSet<Integer> expected = new java.util.HashSet<>();
+        int mistakes = 0;
+        for (int i = 0; i < 200; i++) {
+            int value = rnd.nextInt(1000) * 11;
+            H3.insert(value);
+            expected.add(value);
+            int probe = rnd.nextInt(11000);
+            if (H3.contains(probe) != expected.contains(probe)) {
+                mistakes++;
+            }
+        }
+        System.out.printf("Incremental rehash: %d mistakes\n", mistakes);
+
+        // Test trimToSize during an incremental rehash
+        // The shrunk table must make room for the entries still in the old array, so this should print 68 items
+        HashTable<Integer> H4 = new HashTable<>(5, ProbingMode.ROBIN_HOOD);
+        H4.setIncrementalRehash(true);
+        H4.ensureCapacity(3000);
+        for (int i = 0; i < 28; i++) {
+            H4.insert(i);
+        }
+        H4.trimToSize();
+        for (int i = 100; i < 140; i++) {
+            H4.insert(i);
+        }
+        System.out.printf("Trimmed incremental table: %d items, capacity %d\n", H4.getAll().size(), H4.capacity());
     }
 }
 
@@ -0,0 +1,216 @@
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Key/value map built on HashTable.
+ * Each key is kept with its value in a Node, the table's element, and nodes are equal
+ * when their keys are. Every operation below probes the table with one reused node,
+ * so it finds or places its key with a single probe and without allocating unless the key is new.
+ * Null values are not allowed.
+ */
+public class HashTableMap<K, V> {
+    private final HashTable<Node<K, V>> table;
+    private final Node<K, V> probe = new Node<>(null, null);  // Only ever looked up with, never stored
+
+    /**
+     * A key and its value; equals and hashCode only look at the key
+     */
+    private static final class Node<K, V> {
+        K key;
+        V value;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Node && this.key.equals(((Node<?, ?>) o).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.key.hashCode();
+        }
+    }
+
+    public HashTableMap() {
+        this.table = new HashTable<>();
+    }
+
+    /**
+     * @param size The approximate initial size
+     */
+    public HashTableMap(int size) {
+        this.table = new HashTable<>(size);
+    }
+
+    /**
+     * @param size The approximate initial size
+     * @param probing The collision resolution to use
+     */
+    public HashTableMap(int size, HashTable.ProbingMode probing) {
+        this.table = new HashTable<>(size, probing);
+    }
+
+    /**
+     * Points the reused probe node at a key
+     */
+    private Node<K, V> probeFor(K key) {
+        this.probe.key = key;
+        return this.probe;
+    }
+
+    /**
+     * Returns the value mapped to a key
+     * @param key The key to search for
+     * @return The value, or null if the key is not present
+     */
+    public V get(K key) {
+        Node<K, V> node = table.find(probeFor(key));
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Maps a key to a value, replacing any value it had
+     * @param key The key
+     * @param value The new value
+     * @return The previous value, or null if there was none
+     */
+    public V put(K key, V value) {
+        Objects.requireNonNull(value);
+        int before = table.size();
+        Node<K, V> node = table.computeIfAbsent(probeFor(key), p -> new Node<>(key, value));
+        if (table.size() > before) {
+            return null;
+        }
+        V old = node.value;
+        node.value = value;
+        return old;
+    }
+
+    /**
+     * Returns the value of a key, computing and storing one first if it has none
+     * The value is computed before the key goes in, so if mappingFunction throws the map is left as it was
+     * @param key The key
+     * @param mappingFunction Makes the value from the key, without changing this map; if it returns null the key is left out
+     * @return The current value of the key, or null if none was computed
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Node<K, V> node = table.computeIfAbsent(probeFor(key), p -> new Node<>(key, mappingFunction.apply(key)));
+        if (node.value == null) {
+            table.remove(node);
+        }
+        return node.value;
+    }
+
+    /**
+     * Stores value if the key has no value, otherwise combines the old and new values
+     * If remappingFunction throws, the key keeps its old value
+     * @param key The key
+     * @param value The value to store or combine
+     * @param remappingFunction Combines the old value with value, must not return null
+     * @return The new value of the key
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        int before = table.size();
+        Node<K, V> node = table.computeIfAbsent(probeFor(key), p -> new Node<>(key, value));
+        if (table.size() == before) {
+            node.value = Objects.requireNonNull(remappingFunction.apply(node.value, value));
+        }
+        return node.value;
+    }
+
+    /**
+     * Adds one to the count of a key, for maps whose values are Integer counts
+     * @param key The key to count
+     * @return The new count
+     * @throws ClassCastException if the key's value is not an Integer
+     */
+    @SuppressWarnings("unchecked")
+    public int increment(K key) {
+        int before = table.size();
+        Node<K, V> node = table.computeIfAbsent(probeFor(key), p -> new Node<>(key, (V) Integer.valueOf(1)));
+        if (table.size() == before) {
+            node.value = (V) Integer.valueOf((Integer) node.value + 1);
+        }
+        return (Integer) node.value;
+    }
+
+    /**
+     * Passes every key and its value to action
+     * @param action Receives each key and value
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Node<K, V> node : table) {
+            action.accept(node.key, node.value);
+        }
+    }
+
+    /**
+     * @param key The key to search for
+     * @return true if the key has a value
+     */
+    public boolean containsKey(K key) {
+        return table.contains(probeFor(key));
+    }
+
+    /**
+     * Removes a key and its value
+     * @param key The key to remove
+     * @return true if the key was present
+     */
+    public boolean remove(K key) {
+        return table.remove(probeFor(key));
+    }
+
+    /**
+     * @return The number of keys
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * @return Probe statistics of the underlying table
+     */
+    public ProbeStats getStatistics() {
+        return table.getStatistics();
+    }
+
+    // Simple main
+    public static void main(String[] args) {
+        HashTableMap<String, Integer> ages = new HashTableMap<>();
+        ages.put("James", 42);
+        ages.put("Harry", 11);
+        // Should print 42, the old value, then 25
+        System.out.println(ages.put("James", 25));
+        System.out.println(ages.get("James"));
+
+        // Should print 2 2 3: "cat" appears twice, merging 0 into it leaves 2, and "the" appears three times
+        HashTableMap<String, Integer> words = new HashTableMap<>();
+        for (String word : "the cat saw the dog see the cat".split(" ")) {
+            words.increment(word);
+        }
+        System.out.println(words.get("cat") + " " + words.merge("cat", 0, Integer::sum) + " " + words.get("the"));
+
+        // Should print 0, the value computed for a new key, and null for a removed key
+        System.out.println(words.computeIfAbsent("bird", w -> 0));
+        words.remove("dog");
+        System.out.println(words.get("dog"));
+        words.forEach((word, count) -> System.out.println(word + " " + count));
+
+        // Should print false twice: a mapping function that throws leaves no key behind
+        try {
+            words.computeIfAbsent("fish", w -> {
+                throw new IllegalStateException("no value for " + w);
+            });
+        } catch (IllegalStateException e) {
+            System.out.println(words.containsKey("fish") + " " + (words.get("fish") != null));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Strategy that spreads an element's hashCode before a hash table reduces it to a cell.
+ * Weak hashCodes such as ColorMap's red + green + blue pile up in a few cells;
+ * a good spreader scatters them across the table.
+ */
+public interface Hasher {
+    /**
+     * Uses the hashCode as it is
+     */
+    Hasher IDENTITY = h -> h;
+
+    /**
+     * The 32 bit finalizer of MurmurHash3, every input bit affects every output bit
+     */
+    Hasher MURMUR3 = h -> {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    };
+
+    /**
+     * Fibonacci multiplicative hashing, multiplies by 2^32 divided by the golden ratio
+     * The high half, where the product is best mixed, is folded into the low half
+     */
+    Hasher FIBONACCI = h -> {
+        int p = h * 0x9E3779B9;
+        return p ^ (p >>> 16);
+    };
+
+    /**
+     * Spreads a hash code
+     * @param hashCode The value returned by the element's hashCode
+     * @return The hash the table reduces to a cell
+     */
+    int spread(int hashCode);
+}
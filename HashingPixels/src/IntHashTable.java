@@ -0,0 +1,250 @@
+
+// Primitive int-keyed counting hash table
+//
+// CONSTRUCTION: an approximate initial size or default of 101
+//
+// ******************PUBLIC OPERATIONS*********************
+// int increment( key )   --> Add one to the count for key
+// int add( key, delta )  --> Add delta to the count for key
+// int get( key )         --> Return the count for key, 0 if absent
+// bool contains( key )   --> Return true if key is present
+// void forEach( v )      --> Visit every key and count
+// void save( path )      --> Write the table for MappedIntHashTable.load
+// void makeEmpty( )      --> Remove all items
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Quadratic probing hash table that maps int keys to int counts.
+ * Keys and counts are kept in two parallel int arrays so counting does not
+ * allocate a wrapper per lookup. A count of 0 marks an empty slot, which is
+ * why counts may only grow and there is no remove.
+ * Uses the same prime sizing and half-full rehash rule as HashTable.
+ */
+public class IntHashTable implements CountTable
+{
+    /**
+     * Receives each key and count from forEach.
+     */
+    public interface EntryVisitor
+    {
+        void visit( int key, int count );
+    }
+
+    /**
+     * Construct the hash table.
+     */
+    public IntHashTable( )
+    {
+        this( DEFAULT_TABLE_SIZE );
+    }
+
+    /**
+     * Construct the hash table.
+     * @param size the approximate initial size.
+     */
+    public IntHashTable( int size )
+    {
+        allocateArrays( size );
+    }
+
+    /**
+     * Add one to the count stored for key, inserting it if needed.
+     * @param key the key to count.
+     * @return the new count for key.
+     */
+    public int increment( int key )
+    {
+        return add( key, 1 );
+    }
+
+    /**
+     * Add delta to the count stored for key, inserting it if needed.
+     * @param key the key to count.
+     * @param delta the amount to add, must be positive.
+     * @return the new count for key.
+     */
+    public int add( int key, int delta )
+    {
+        if( delta <= 0 )
+            throw new IllegalArgumentException( "delta must be positive: " + delta );
+
+        int currentPos = findPos( key );
+        if( counts[ currentPos ] != 0 )
+            return counts[ currentPos ] += delta;
+
+        keys[ currentPos ] = key;
+        counts[ currentPos ] = delta;
+
+        // Rehash; see Section 5.5
+        if( ++currentSize > keys.length / 2 )
+            rehash( );
+
+        return delta;
+    }
+
+    /**
+     * Find the count for a key.
+     * @param key the key to search for.
+     * @return the count for key, or 0 if it is not present.
+     */
+    public int get( int key )
+    {
+        return counts[ findPos( key ) ];
+    }
+
+    /**
+     * Find a key in the hash table.
+     * @param key the key to search for.
+     * @return true if key is found.
+     */
+    public boolean contains( int key )
+    {
+        return counts[ findPos( key ) ] != 0;
+    }
+
+    /**
+     * Visit every key and its count, in table order.
+     * @param visitor receives each key and count.
+     */
+    @Override
+    public void forEach( EntryVisitor visitor )
+    {
+        for( int i = 0; i < keys.length; i++ )
+            if( counts[ i ] != 0 )
+                visitor.visit( keys[ i ], counts[ i ] );
+    }
+
+    /**
+     * Write the table in the format MappedIntHashTable.load maps.
+     * The table is first rebuilt at the smallest prime size that keeps it at most
+     * half full, so the file holds little more than two empty slots per key.
+     * @param path the file to write, replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save( Path path ) throws IOException
+    {
+        IntHashTable trimmed = this;
+        if( keys.length > HashTable.nextPrime( 2 * currentSize + 1 ) )
+        {
+            trimmed = new IntHashTable( 2 * currentSize + 1 );
+            forEach( trimmed::add );
+        }
+
+        int capacity = trimmed.keys.length;
+        ByteBuffer buffer = ByteBuffer.allocate( 4 * ( MappedIntHashTable.HEADER_INTS + 2 * capacity ) )
+                .order( ByteOrder.LITTLE_ENDIAN );
+        IntBuffer ints = buffer.asIntBuffer( );
+        ints.put( MappedIntHashTable.MAGIC ).put( MappedIntHashTable.VERSION ).put( capacity ).put( currentSize );
+        ints.put( trimmed.keys ).put( trimmed.counts );
+
+        try( FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            while( buffer.hasRemaining( ) )
+                channel.write( buffer );
+        }
+    }
+
+    /**
+     * Get current size.
+     * @return the number of distinct keys.
+     */
+    @Override
+    public int size( )
+    {
+        return currentSize;
+    }
+
+    /**
+     * Get length of internal table.
+     * @return the size.
+     */
+    public int capacity( )
+    {
+        return keys.length;
+    }
+
+    /**
+     * Make the hash table logically empty.
+     */
+    public void makeEmpty( )
+    {
+        currentSize = 0;
+        java.util.Arrays.fill( counts, 0 );
+    }
+
+    /**
+     * Expand the hash table.
+     */
+    private void rehash( )
+    {
+        int [ ] oldKeys = keys;
+        int [ ] oldCounts = counts;
+
+        // Create a new double-sized, empty table
+        allocateArrays( 2 * oldKeys.length );
+
+        // Copy table over; every key is distinct so no equality check is needed
+        for( int i = 0; i < oldKeys.length; i++ )
+            if( oldCounts[ i ] != 0 )
+            {
+                int currentPos = findPos( oldKeys[ i ] );
+                keys[ currentPos ] = oldKeys[ i ];
+                counts[ currentPos ] = oldCounts[ i ];
+            }
+    }
+
+    /**
+     * Method that performs quadratic probing resolution.
+     * @param key the key to search for.
+     * @return the slot holding key, or the empty slot where the search ended.
+     */
+    private int findPos( int key )
+    {
+        int offset = 1;
+        int currentPos = myhash( key );
+
+        while( counts[ currentPos ] != 0 && keys[ currentPos ] != key )
+        {
+            currentPos += offset;  // Compute ith probe
+            offset += 2;
+            if( currentPos >= keys.length )
+                currentPos -= keys.length;
+        }
+
+        return currentPos;
+    }
+
+    private int myhash( int key )
+    {
+        int hashVal = key % keys.length;
+        if( hashVal < 0 )
+            hashVal += keys.length;
+
+        return hashVal;
+    }
+
+    /**
+     * Internal method to allocate the key and count arrays.
+     * @param arraySize the size of the arrays.
+     */
+    private void allocateArrays( int arraySize )
+    {
+        int length = HashTable.nextPrime( arraySize );
+        keys = new int[ length ];
+        counts = new int[ length ];
+    }
+
+    private static final int DEFAULT_TABLE_SIZE = 101;
+
+    private int [ ] keys;      // The keys, valid where counts is non-zero
+    private int [ ] counts;    // The counts; 0 marks an empty slot
+    private int currentSize;   // Number of distinct keys
+}
@@ -0,0 +1,156 @@
+
+// Memory-mapped read-only view of a saved IntHashTable
+//
+// CONSTRUCTION: MappedIntHashTable.load( path ) on a file written by IntHashTable.save( path )
+//
+// ******************PUBLIC OPERATIONS*********************
+// int get( key )         --> Return the count for key, 0 if absent
+// bool contains( key )   --> Return true if key is present
+// void forEach( v )      --> Visit every key and count
+// int size( )            --> Number of distinct keys
+
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only IntHashTable that probes a saved table in place.
+ * The file holds a small header and then the key and count arrays exactly as
+ * IntHashTable lays them out, so loading maps the file and reads nothing else;
+ * each lookup runs the same quadratic probe over the mapped ints, and only the
+ * pages it touches are read from disk.
+ *
+ * File format, little-endian ints:
+ * MAGIC, VERSION, capacity (a prime), size, keys[ capacity ], counts[ capacity ]
+ */
+public class MappedIntHashTable implements CountTable
+{
+    static final int MAGIC = 0x48505848;   // "HPXH"
+    static final int VERSION = 1;
+    static final int HEADER_INTS = 4;
+
+    /**
+     * Map a table saved by IntHashTable.save.
+     * @param path the file to map.
+     * @return a view of the saved table.
+     * @throws IOException if the file cannot be read or is not a saved table.
+     */
+    public static MappedIntHashTable load( Path path ) throws IOException
+    {
+        try( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            long length = channel.size( );
+            if( length < HEADER_INTS * 4 )
+                throw new IOException( "Not a saved hash table: " + path );
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, length );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            IntBuffer ints = buffer.asIntBuffer( );
+            int capacity = ints.get( 2 );
+            if( ints.get( 0 ) != MAGIC || ints.get( 1 ) != VERSION || capacity <= 0
+                    || length != 4L * ( HEADER_INTS + 2L * capacity ) )
+                throw new IOException( "Not a saved hash table: " + path );
+            return new MappedIntHashTable( ints, capacity, ints.get( 3 ) );
+        }
+    }
+
+    private MappedIntHashTable( IntBuffer ints, int capacity, int size )
+    {
+        this.ints = ints;
+        this.capacity = capacity;
+        this.currentSize = size;
+    }
+
+    /**
+     * Find the count for a key.
+     * @param key the key to search for.
+     * @return the count for key, or 0 if it is not present.
+     */
+    public int get( int key )
+    {
+        return count( findPos( key ) );
+    }
+
+    /**
+     * Find a key in the hash table.
+     * @param key the key to search for.
+     * @return true if key is found.
+     */
+    public boolean contains( int key )
+    {
+        return count( findPos( key ) ) != 0;
+    }
+
+    /**
+     * Visit every key and its count, in table order.
+     * @param visitor receives each key and count.
+     */
+    @Override
+    public void forEach( IntHashTable.EntryVisitor visitor )
+    {
+        for( int i = 0; i < capacity; i++ )
+            if( count( i ) != 0 )
+                visitor.visit( key( i ), count( i ) );
+    }
+
+    /**
+     * Get current size.
+     * @return the number of distinct keys.
+     */
+    @Override
+    public int size( )
+    {
+        return currentSize;
+    }
+
+    /**
+     * Get length of internal table.
+     * @return the size.
+     */
+    public int capacity( )
+    {
+        return capacity;
+    }
+
+    /**
+     * Method that performs quadratic probing resolution, as in IntHashTable.
+     * @param key the key to search for.
+     * @return the slot holding key, or the empty slot where the search ended.
+     */
+    private int findPos( int key )
+    {
+        int offset = 1;
+        int currentPos = key % capacity;
+        if( currentPos < 0 )
+            currentPos += capacity;
+
+        while( count( currentPos ) != 0 && key( currentPos ) != key )
+        {
+            currentPos += offset;  // Compute ith probe
+            offset += 2;
+            if( currentPos >= capacity )
+                currentPos -= capacity;
+        }
+
+        return currentPos;
+    }
+
+    private int key( int pos )
+    {
+        return ints.get( HEADER_INTS + pos );
+    }
+
+    private int count( int pos )
+    {
+        return ints.get( HEADER_INTS + capacity + pos );
+    }
+
+    private final IntBuffer ints;   // The whole file: header, keys, counts
+    private final int capacity;
+    private final int currentSize;
+}
@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Median-cut palette builder over a color histogram.
+ * The histogram's cubes are copied into flat arrays of red, green, blue and count, and each box
+ * is a range of those arrays. The box with the most pixels is split on its widest channel at the
+ * pixel-weighted median, which is found by three-way partitioning the range in place around a
+ * pivot and only carrying on into the part that holds the median, as in quickselect, instead of
+ * sorting the box. A split costs time linear in the box's size, so building k colors from n cubes
+ * takes O(n log k) when the splits are about even, plus O(k log k) for the queue of boxes.
+ * Each box's pixel-weighted average cube becomes one palette color.
+ */
+public class MedianCut {
+    private final int[][] channels;  // channels[c][i] is channel c (red, green, blue) of cube i
+    private final int[] count;       // Pixels in cube i
+    private final int len;
+
+    // Boxes, each a range of the flat arrays
+    private int[] boxStart;
+    private int[] boxEnd;
+    private long[] boxCount;
+    private int[] boxAxis;           // Widest channel of the box
+    private int boxes;
+
+    /**
+     * Copies a histogram into flat arrays
+     * @param histogram The packed cube keys of an image and their pixel counts, as made by ReColor.getHistogram
+     * @param len Size of the histogram's cubes
+     */
+    MedianCut(CountTable histogram, int len) {
+        int size = histogram.size();
+        this.channels = new int[3][size];
+        this.count = new int[size];
+        this.len = len;
+        int[] n = {0};
+        histogram.forEach((key, pixels) -> {
+            int i = n[0]++;
+            this.channels[0][i] = key >> 16;
+            this.channels[1][i] = (key >> 8) & 0xff;
+            this.channels[2][i] = key & 0xff;
+            this.count[i] = Math.max(1, pixels);
+        });
+    }
+
+    /**
+     * Splits the histogram into at most colorLimit boxes and returns their average colors, most pixels first
+     * Fewer colors come back when the histogram has fewer than colorLimit cubes
+     * Splitting reorders the flat arrays in place, which does not change what later calls return
+     * @param colorLimit Most colors in the palette
+     * @return One ColorMap per box, with occurCt set to its pixel count
+     */
+    ColorMap[] getPalette(int colorLimit) {
+        int size = this.count.length;
+        if (size == 0 || colorLimit < 1) {
+            return new ColorMap[0];
+        }
+        int limit = Math.min(colorLimit, size);
+        this.boxStart = new int[limit];
+        this.boxEnd = new int[limit];
+        this.boxCount = new long[limit];
+        this.boxAxis = new int[limit];
+        this.boxes = 0;
+
+        PriorityQueue<Integer> splittable = new PriorityQueue<>(limit,
+                Comparator.comparingLong((Integer box) -> this.boxCount[box]).reversed());
+        setBox(this.boxes++, 0, size, splittable);
+        while (this.boxes < limit && !splittable.isEmpty()) {
+            int box = splittable.poll();
+            int start = this.boxStart[box];
+            int end = this.boxEnd[box];
+            int cut = split(start, end, this.boxAxis[box], this.boxCount[box]);
+            // The first half takes over the box's slot and the second gets a new one
+            setBox(box, start, cut, splittable);
+            setBox(this.boxes++, cut, end, splittable);
+        }
+
+        ColorMap[] palette = new ColorMap[this.boxes];
+        for (int box = 0; box < this.boxes; box++) {
+            palette[box] = average(box);
+        }
+        Arrays.sort(palette, Comparator.reverseOrder());
+        return palette;
+    }
+
+    /**
+     * Records cubes start to end - 1 as a box, with its pixel count and widest channel, and queues it if it can split
+     */
+    private void setBox(int box, int start, int end, PriorityQueue<Integer> splittable) {
+        long pixels = 0;
+        int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        int[] max = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        for (int i = start; i < end; i++) {
+            pixels += this.count[i];
+            for (int c = 0; c < 3; c++) {
+                int v = this.channels[c][i];
+                min[c] = Math.min(min[c], v);
+                max[c] = Math.max(max[c], v);
+            }
+        }
+        int axis = 0;
+        for (int c = 1; c < 3; c++) {
+            if (max[c] - min[c] > max[axis] - min[axis]) {
+                axis = c;
+            }
+        }
+        this.boxStart[box] = start;
+        this.boxEnd[box] = end;
+        this.boxCount[box] = pixels;
+        this.boxAxis[box] = axis;
+        // A box whose widest channel has one value is a single cube and cannot split
+        if (max[axis] > min[axis]) {
+            splittable.add(box);
+        }
+    }
+
+    /**
+     * Partitions cubes start to end - 1 in place on one channel, around the pixel-weighted median
+     * The box must hold at least two values of the channel
+     * @param total Pixels in the box
+     * @return The cut: every cube before it has a smaller channel value than every cube from it on,
+     * and neither side is empty
+     */
+    private int split(int start, int end, int axis, long total) {
+        int[] values = this.channels[axis];
+        int lo = start;
+        int hi = end;
+        long below = 0;  // Pixels before lo; the median is in lo to hi - 1, so 2 * below < total
+        while (true) {
+            int pivot = values[(lo + hi) >>> 1];
+            // Three-way partition: lo to lt - 1 are less than pivot, lt to gt - 1 equal, gt to hi - 1 greater
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            long less = 0;
+            long equal = 0;
+            while (i < gt) {
+                int v = values[i];
+                if (v < pivot) {
+                    less += this.count[i];
+                    swap(i++, lt++);
+                } else if (v > pivot) {
+                    swap(i, --gt);
+                } else {
+                    equal += this.count[i];
+                    i++;
+                }
+            }
+
+            if (2 * (below + less) >= total) {
+                hi = lt;
+            } else if (2 * (below + less + equal) < total) {
+                below += less + equal;
+                lo = gt;
+            } else {
+                // The median is in the run equal to pivot: cut on whichever side of the run is nearer it
+                long before = total - 2 * (below + less);
+                long after = 2 * (below + less + equal) - total;
+                int cut = before <= after ? lt : gt;
+                if (cut == start) {
+                    cut = gt;
+                } else if (cut == end) {
+                    cut = lt;
+                }
+                return cut;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        for (int[] values : this.channels) {
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+        int tmp = this.count[i];
+        this.count[i] = this.count[j];
+        this.count[j] = tmp;
+    }
+
+    /**
+     * Makes the ColorMap of a box's pixel-weighted average cube
+     */
+    private ColorMap average(int box) {
+        long[] sum = new long[3];
+        for (int i = this.boxStart[box]; i < this.boxEnd[box]; i++) {
+            for (int c = 0; c < 3; c++) {
+                sum[c] += (long) this.channels[c][i] * this.count[i];
+            }
+        }
+        long pixels = this.boxCount[box];
+        int key = 0;
+        for (int c = 0; c < 3; c++) {
+            key = key << 8 | (int) ((2 * sum[c] + pixels) / (2 * pixels));  // Rounded to the nearest cube
+        }
+        ColorMap map = ColorMap.fromKey(key, this.len);
+        map.occurCt = (int) Math.min(Integer.MAX_VALUE, pixels);
+        return map;
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Octree color quantizer that builds a palette in one pass over the pixels, in fixed memory.
+ * Each pixel walks down from the root, taking at every level the child picked by the next bit
+ * of its red, green and blue, and its color is added to the leaf at the bottom. Every node also
+ * counts the pixels that passed through it.
+ * The nodes live in primitive arrays of MAX_NODES entries. Whenever there are more than
+ * maxLeaves leaves, or the arrays are nearly full, the least-populated node on the deepest level
+ * that still has children is folded into a single leaf holding its children's sums, and the
+ * children's nodes are reused. Folding a whole node can take away up to seven leaves at once,
+ * so getPalette instead merges the least-populated leaf into the sibling with the nearest average
+ * color, one leaf at a time, until colorLimit leaves remain. Each leaf's average color becomes
+ * one palette color.
+ */
+public class OctreeQuantizer {
+    private static final int MAX_DEPTH = 8;         // One level per bit of a channel
+    private static final int MAX_NODES = 1 << 14;
+    static final int MAX_LEAVES = MAX_NODES / MAX_DEPTH;  // Every leaf can need a path of MAX_DEPTH nodes
+
+    // Node arrays; node 0 is the root and child index 0 means no child
+    private final int[] children = new int[MAX_NODES * 8];
+    private final long[] pixelCount = new long[MAX_NODES];
+    private final long[] redSum = new long[MAX_NODES];
+    private final long[] greenSum = new long[MAX_NODES];
+    private final long[] blueSum = new long[MAX_NODES];
+    private final boolean[] leaf = new boolean[MAX_NODES];
+    private final byte[] level = new byte[MAX_NODES];
+    private final int[] parent = new int[MAX_NODES];
+
+    // Nodes with children, in one doubly linked list per level, so the deepest can be folded first
+    private final int[] reducibleHead = new int[MAX_DEPTH];
+    private final int[] nextReducible = new int[MAX_NODES];
+    private final int[] prevReducible = new int[MAX_NODES];
+
+    private final int[] freeNodes = new int[MAX_NODES];  // Stack of folded nodes ready for reuse
+    private int freeCount;
+    private int nodeCount = 1;                           // Nodes handed out from the end of the arrays
+    private int leafCount;
+    private final int maxLeaves;
+
+    /**
+     * Creates an empty octree
+     * @param maxLeaves Most leaves kept while adding pixels; more keeps more detail for the final fold
+     */
+    OctreeQuantizer(int maxLeaves) {
+        if (maxLeaves < 1 || maxLeaves > MAX_LEAVES) {
+            throw new IllegalArgumentException("maxLeaves must be 1 to " + MAX_LEAVES + ": " + maxLeaves);
+        }
+        this.maxLeaves = maxLeaves;
+        java.util.Arrays.fill(this.reducibleHead, -1);
+    }
+
+    /**
+     * Adds one pixel
+     * @param rgb The pixel, as ARGB; alpha is ignored
+     */
+    void add(int rgb) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        int node = 0;
+        for (int depth = 0; !this.leaf[node]; depth++) {
+            this.pixelCount[node]++;
+            int shift = 7 - depth;
+            int slot = node * 8 + (((r >> shift) & 1) << 2 | ((g >> shift) & 1) << 1 | ((b >> shift) & 1));
+            int child = this.children[slot];
+            if (child == 0) {
+                if (!hasChildren(node)) {
+                    addReducible(node);
+                }
+                child = newNode(depth + 1);
+                this.children[slot] = child;
+                this.parent[child] = node;
+            }
+            node = child;
+        }
+        this.pixelCount[node]++;
+        this.redSum[node] += r;
+        this.greenSum[node] += g;
+        this.blueSum[node] += b;
+
+        while (this.leafCount > this.maxLeaves || this.freeCount + (MAX_NODES - this.nodeCount) < MAX_DEPTH) {
+            reduce();
+        }
+    }
+
+    /**
+     * Merges leaves until at most colorLimit remain and returns their average colors, most pixels first
+     * The tree keeps the merges, so more pixels can still be added afterwards
+     * @param colorLimit Most colors in the palette
+     * @param len Size of the cubes the palette's ColorMaps are put in
+     * @return One ColorMap per leaf, with occurCt set to its pixel count
+     */
+    ColorMap[] getPalette(int colorLimit, int len) {
+        int[] leaves = new int[this.leafCount];
+        int leafTotal = leavesUnder(0, leaves, 0);
+        while (leafTotal > Math.max(1, colorLimit)) {
+            // Only leaves whose siblings are all leaves can merge; the deepest leaves always can
+            int least = -1;
+            for (int i = 0; i < leafTotal; i++) {
+                if ((least == -1 || this.pixelCount[leaves[i]] < this.pixelCount[leaves[least]]) && siblingsAreLeaves(leaves[i])) {
+                    least = i;
+                }
+            }
+            int node = leaves[least];
+            int sibling = nearestSibling(node);
+            if (sibling == -1) {
+                // An only child: its parent becomes the leaf, which leaves the count the same but lets it merge next
+                leaves[least] = foldIntoParent(node);
+            } else {
+                mergeLeaf(node, sibling);
+                leaves[least] = leaves[--leafTotal];
+            }
+        }
+
+        ColorMap[] palette = new ColorMap[leafTotal];
+        int found = collect(0, palette, 0, len);
+        java.util.Arrays.sort(palette, 0, found, java.util.Comparator.reverseOrder());
+        return java.util.Arrays.copyOf(palette, found);
+    }
+
+    /**
+     * Adds the leaves under node to leaves from position found on
+     * @return The new number of leaves found
+     */
+    private int leavesUnder(int node, int[] leaves, int found) {
+        if (this.leaf[node]) {
+            leaves[found++] = node;
+            return found;
+        }
+        for (int i = 0; i < 8; i++) {
+            int child = this.children[node * 8 + i];
+            if (child != 0) {
+                found = leavesUnder(child, leaves, found);
+            }
+        }
+        return found;
+    }
+
+    private boolean siblingsAreLeaves(int node) {
+        int up = this.parent[node];
+        for (int i = 0; i < 8; i++) {
+            int sibling = this.children[up * 8 + i];
+            if (sibling != 0 && !this.leaf[sibling]) {
+                return false;
+            }
+        }
+        return node != 0;
+    }
+
+    /**
+     * Finds the sibling leaf whose average color is nearest a leaf's
+     * @return The sibling, or -1 if the leaf has no sibling
+     */
+    private int nearestSibling(int node) {
+        int up = this.parent[node];
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            int sibling = this.children[up * 8 + i];
+            if (sibling == 0 || sibling == node) {
+                continue;
+            }
+            long dr = averageDifference(this.redSum, node, sibling);
+            long dg = averageDifference(this.greenSum, node, sibling);
+            long db = averageDifference(this.blueSum, node, sibling);
+            long distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = sibling;
+            }
+        }
+        return best;
+    }
+
+    private long averageDifference(long[] sums, int a, int b) {
+        return sums[a] / Math.max(1, this.pixelCount[a]) - sums[b] / Math.max(1, this.pixelCount[b]);
+    }
+
+    /**
+     * Adds a leaf's pixels to a sibling leaf and frees the leaf
+     */
+    private void mergeLeaf(int node, int into) {
+        this.pixelCount[into] += this.pixelCount[node];
+        this.redSum[into] += this.redSum[node];
+        this.greenSum[into] += this.greenSum[node];
+        this.blueSum[into] += this.blueSum[node];
+        unlink(node);
+        this.leafCount--;
+    }
+
+    /**
+     * Folds a leaf that is its parent's only child into the parent
+     * @return The parent, now a leaf
+     */
+    private int foldIntoParent(int node) {
+        int up = this.parent[node];
+        this.redSum[up] += this.redSum[node];
+        this.greenSum[up] += this.greenSum[node];
+        this.blueSum[up] += this.blueSum[node];
+        unlink(node);
+        removeReducible(up);
+        this.leaf[up] = true;
+        return up;
+    }
+
+    /**
+     * Takes a node out of its parent's children and frees it
+     */
+    private void unlink(int node) {
+        int up = this.parent[node];
+        for (int i = 0; i < 8; i++) {
+            if (this.children[up * 8 + i] == node) {
+                this.children[up * 8 + i] = 0;
+            }
+        }
+        this.freeNodes[this.freeCount++] = node;
+    }
+
+    /**
+     * Adds the leaves under node to palette from position found on
+     * @return The new number of palette entries
+     */
+    private int collect(int node, ColorMap[] palette, int found, int len) {
+        if (this.leaf[node]) {
+            long count = this.pixelCount[node];
+            if (count > 0) {
+                ColorMap map = new ColorMap(255, (int) (this.redSum[node] / count), (int) (this.greenSum[node] / count),
+                        (int) (this.blueSum[node] / count), len);
+                map.occurCt = (int) Math.min(Integer.MAX_VALUE, count);
+                palette[found++] = map;
+            }
+            return found;
+        }
+        for (int i = 0; i < 8; i++) {
+            int child = this.children[node * 8 + i];
+            if (child != 0) {
+                found = collect(child, palette, found, len);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Folds the least-populated node with children on the deepest such level into one leaf
+     */
+    private void reduce() {
+        int depth = MAX_DEPTH - 1;
+        while (depth >= 0 && this.reducibleHead[depth] == -1) {
+            depth--;
+        }
+        if (depth < 0) {
+            throw new IllegalStateException("Nothing left to fold");
+        }
+        int node = this.reducibleHead[depth];
+        for (int n = this.nextReducible[node]; n != -1; n = this.nextReducible[n]) {
+            if (this.pixelCount[n] < this.pixelCount[node]) {
+                node = n;
+            }
+        }
+        removeReducible(node);
+
+        // The deepest node with children only has leaves under it
+        int folded = 0;
+        for (int i = 0; i < 8; i++) {
+            int child = this.children[node * 8 + i];
+            if (child != 0) {
+                this.redSum[node] += this.redSum[child];
+                this.greenSum[node] += this.greenSum[child];
+                this.blueSum[node] += this.blueSum[child];
+                this.children[node * 8 + i] = 0;
+                this.freeNodes[this.freeCount++] = child;
+                folded++;
+            }
+        }
+        this.leaf[node] = true;
+        this.leafCount += 1 - folded;
+    }
+
+    private int newNode(int depth) {
+        int node = this.freeCount > 0 ? this.freeNodes[--this.freeCount] : this.nodeCount++;
+        java.util.Arrays.fill(this.children, node * 8, node * 8 + 8, 0);
+        this.pixelCount[node] = 0;
+        this.redSum[node] = 0;
+        this.greenSum[node] = 0;
+        this.blueSum[node] = 0;
+        this.level[node] = (byte) depth;
+        this.leaf[node] = depth == MAX_DEPTH;
+        if (this.leaf[node]) {
+            this.leafCount++;
+        }
+        return node;
+    }
+
+    private boolean hasChildren(int node) {
+        for (int i = 0; i < 8; i++) {
+            if (this.children[node * 8 + i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addReducible(int node) {
+        int depth = this.level[node];
+        this.prevReducible[node] = -1;
+        this.nextReducible[node] = this.reducibleHead[depth];
+        if (this.reducibleHead[depth] != -1) {
+            this.prevReducible[this.reducibleHead[depth]] = node;
+        }
+        this.reducibleHead[depth] = node;
+    }
+
+    private void removeReducible(int node) {
+        int depth = this.level[node];
+        if (this.prevReducible[node] == -1) {
+            this.reducibleHead[depth] = this.nextReducible[node];
+        } else {
+            this.nextReducible[this.prevReducible[node]] = this.nextReducible[node];
+        }
+        if (this.nextReducible[node] != -1) {
+            this.prevReducible[this.nextReducible[node]] = this.prevReducible[node];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Maps pixels to their nearest palette color, built once per palette.
+ * The cubes of side len form an n x n x n grid with n = 255 / len + 1. When the grid has at most
+ * MAX_TABLE_CUBES cubes, a table holds one palette index per cube, filled with PaletteTree queries,
+ * so mapping a pixel is three reads of small per-channel tables that replace the divisions plus
+ * one read of the cube table. Finer grids would make that table too big and slow to fill, so
+ * each pixel queries the PaletteTree instead, through a small per-thread cache of recent cubes,
+ * since neighboring pixels often share a cube.
+ * Nearest is by squared distance between cube coordinates, the same measure ReColor used before.
+ */
+public class PaletteLookup {
+    private static final int MAX_TABLE_CUBES = 1 << 18;  // Largest grid given a full table: cubes of 4 or more
+    private static final int CACHE_SIZE = 4096;          // Recent cubes remembered per thread, a power of two
+
+    private final int[] paletteRGB;    // Center of each palette color's cube, as 0xRRGGBB
+    private final PaletteTree tree;
+    private final short[] cubeToPalette;  // Palette index for each cube, read with & 0xffff, or null on fine grids
+    private final int[] redOffset;     // Index offset of each red value's cube in the grid
+    private final int[] greenOffset;
+    private final int[] blueOffset;
+    private final int side;            // Cubes per channel
+    private final ThreadLocal<QueryCache> cache = ThreadLocal.withInitial(QueryCache::new);
+
+    /**
+     * Builds the lookup for a palette
+     * @param palette The colors to map to, at least one and at most 65536
+     * @param len Size of the cubes, the same as the palette's ColorMaps
+     */
+    PaletteLookup(ColorMap[] palette, int len) {
+        if (palette.length == 0 || palette.length > 1 << 16) {
+            throw new IllegalArgumentException("palette must have 1 to 65536 colors: " + palette.length);
+        }
+        this.side = 255 / len + 1;
+        this.tree = new PaletteTree(palette);
+        this.paletteRGB = new int[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            this.paletteRGB[i] = palette[i].getRepresentativeRGB();
+        }
+
+        this.redOffset = new int[256];
+        this.greenOffset = new int[256];
+        this.blueOffset = new int[256];
+        for (int v = 0; v < 256; v++) {
+            this.redOffset[v] = (v / len) * this.side * this.side;
+            this.greenOffset[v] = (v / len) * this.side;
+            this.blueOffset[v] = v / len;
+        }
+
+        if ((long) this.side * this.side * this.side > MAX_TABLE_CUBES) {
+            this.cubeToPalette = null;
+            return;
+        }
+        this.cubeToPalette = new short[this.side * this.side * this.side];
+        int index = 0;
+        for (int r = 0; r < this.side; r++) {
+            for (int g = 0; g < this.side; g++) {
+                for (int b = 0; b < this.side; b++) {
+                    this.cubeToPalette[index++] = (short) this.tree.nearest(r, g, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the palette color nearest to a pixel's cube
+     * @param rgb The pixel, as ARGB; alpha is ignored
+     * @return The index of the palette color
+     */
+    int paletteIndex(int rgb) {
+        int cube = this.redOffset[(rgb >> 16) & 0xff] + this.greenOffset[(rgb >> 8) & 0xff] + this.blueOffset[rgb & 0xff];
+        if (this.cubeToPalette != null) {
+            return this.cubeToPalette[cube] & 0xffff;
+        }
+        return this.cache.get().nearest(cube);
+    }
+
+    /**
+     * Finds the palette color nearest to a cube
+     * @param c The cube
+     * @return The index of the palette color
+     */
+    int paletteIndex(ColorMap c) {
+        if (this.cubeToPalette != null) {
+            return this.cubeToPalette[(c.red * this.side + c.green) * this.side + c.blue] & 0xffff;
+        }
+        return this.tree.nearest(c.red, c.green, c.blue);
+    }
+
+    /**
+     * Replaces every pixel of a row with its palette color, keeping each pixel's alpha
+     * @param row The pixels, as ARGB; changed in place
+     */
+    void remapRow(int[] row) {
+        if (this.cubeToPalette != null) {
+            for (int x = 0; x < row.length; x++) {
+                int p = row[x];
+                row[x] = (p & 0xff000000) | this.paletteRGB[paletteIndex(p)];
+            }
+            return;
+        }
+        QueryCache recent = this.cache.get();
+        for (int x = 0; x < row.length; x++) {
+            int p = row[x];
+            int cube = this.redOffset[(p >> 16) & 0xff] + this.greenOffset[(p >> 8) & 0xff] + this.blueOffset[p & 0xff];
+            row[x] = (p & 0xff000000) | this.paletteRGB[recent.nearest(cube)];
+        }
+    }
+
+    /**
+     * Direct-mapped cache from grid index to palette index, for one thread
+     */
+    private class QueryCache {
+        private final int[] cubes = new int[CACHE_SIZE];
+        private final int[] answers = new int[CACHE_SIZE];
+
+        QueryCache() {
+            java.util.Arrays.fill(this.cubes, -1);
+        }
+
+        int nearest(int cube) {
+            int slot = Hasher.MURMUR3.spread(cube) & (CACHE_SIZE - 1);
+            if (this.cubes[slot] != cube) {
+                int r = cube / (side * side);
+                int g = cube / side % side;
+                int b = cube % side;
+                this.cubes[slot] = cube;
+                this.answers[slot] = tree.nearest(r, g, b);
+            }
+            return this.answers[slot];
+        }
+    }
+}
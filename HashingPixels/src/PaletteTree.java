@@ -0,0 +1,126 @@
+/**
+ * k-d tree over the colors of a palette, for nearest-color queries in cube coordinates.
+ * The tree is kept implicitly in one array of palette indices: the middle of each range is
+ * the node, split on red, green or blue by depth, with the smaller half on its left and the
+ * larger on its right. A query walks down to the query point's side first and only visits
+ * the other side when the splitting plane is closer than the best color found so far, so
+ * it looks at about log2(palette size) colors instead of all of them.
+ * Nearest is by squared distance, and a tie goes to the lower palette index, so the answers
+ * are the same as a linear scan that keeps the first closest color.
+ */
+public class PaletteTree {
+    private final int[] nodes;     // Palette indices in tree order
+    private final int[][] points;  // points[i] is { red, green, blue } of palette color i
+
+    /**
+     * Builds the tree
+     * @param palette The colors to search, at least one
+     */
+    PaletteTree(ColorMap[] palette) {
+        if (palette.length == 0) {
+            throw new IllegalArgumentException("palette must not be empty");
+        }
+        this.points = new int[palette.length][];
+        this.nodes = new int[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            this.points[i] = new int[] {palette[i].red, palette[i].green, palette[i].blue};
+            this.nodes[i] = i;
+        }
+        build(0, this.nodes.length, 0);
+    }
+
+    /**
+     * Puts the median of a range, by one channel, in the middle with smaller colors before it and larger after
+     */
+    private void build(int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        int next = axis == 2 ? 0 : axis + 1;
+        build(lo, mid, next);
+        build(mid + 1, hi, next);
+    }
+
+    /**
+     * Quickselect: moves the k-th smallest node of nodes[left..right] by axis into position k
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            int pivot = this.points[this.nodes[(left + right) >>> 1]][axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (this.points[this.nodes[i]][axis] < pivot) {
+                    i++;
+                }
+                while (this.points[this.nodes[j]][axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = this.nodes[i];
+                    this.nodes[i++] = this.nodes[j];
+                    this.nodes[j--] = tmp;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the palette color nearest to a cube
+     * @param red Red cube coordinate
+     * @param green Green cube coordinate
+     * @param blue Blue cube coordinate
+     * @return The index of the nearest palette color
+     */
+    int nearest(int red, int green, int blue) {
+        long best = search(0, this.nodes.length, 0, red, green, blue, Long.MAX_VALUE);
+        return (int) best;
+    }
+
+    /**
+     * Searches one range of the tree
+     * @param best The best match so far, packed as distance << 32 | palette index
+     * @return The best match after the range, packed the same way
+     */
+    private long search(int lo, int hi, int axis, int red, int green, int blue, long best) {
+        if (lo >= hi) {
+            return best;
+        }
+        int mid = (lo + hi) >>> 1;
+        int index = this.nodes[mid];
+        int[] p = this.points[index];
+        int dr = p[0] - red;
+        int dg = p[1] - green;
+        int db = p[2] - blue;
+        // Packing the index under the distance makes the lower index win a tie
+        long here = (long) (dr * dr + dg * dg + db * db) << 32 | index;
+        if (here < best) {
+            best = here;
+        }
+
+        int diff = (axis == 0 ? red : axis == 1 ? green : blue) - p[axis];
+        int next = axis == 2 ? 0 : axis + 1;
+        // Equal values can sit on either side of the median, so a query on the plane checks both
+        if (diff < 0) {
+            best = search(lo, mid, next, red, green, blue, best);
+            if ((long) diff * diff <= best >>> 32) {
+                best = search(mid + 1, hi, next, red, green, blue, best);
+            }
+        } else {
+            best = search(mid + 1, hi, next, red, green, blue, best);
+            if ((long) diff * diff <= best >>> 32) {
+                best = search(lo, mid, next, red, green, blue, best);
+            }
+        }
+        return best;
+    }
+}
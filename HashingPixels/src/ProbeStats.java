@@ -0,0 +1,221 @@
+import java.util.Arrays;
+
+/**
+ * Probe and occupancy statistics for a hash table.
+ * A table keeps one of these as a running recorder and hands out copies from its
+ * getStatistics method, so a snapshot never changes after it is taken.
+ *
+ * Reset rules: the counters run from when the table was built, or from the last
+ * resetStatistics call, and are never cleared by a rehash or by makeEmpty.
+ * Entries moved by a rehash are not counted as inserts and their probes are not recorded.
+ * The occupancy values (size, capacity, tombstones) are read from the table when the snapshot is taken.
+ */
+public class ProbeStats {
+    /**
+     * Probe lengths from 1 up to HISTOGRAM_SIZE - 1 get their own bucket, longer probes share the last one
+     */
+    public static final int HISTOGRAM_SIZE = 32;
+
+    private long hits;
+    private long misses;
+    private long inserts;
+    private long removes;
+    private long rehashes;
+    private long collisions;
+    private long operations;
+    private long totalProbes;
+    private int maxProbe;
+    private final long[] probeHistogram = new long[HISTOGRAM_SIZE];
+
+    private int size;
+    private int capacity;
+    private int tombstones;
+
+    /**
+     * Records the number of cells one operation looked at
+     * @param probes Cells probed by the operation, at least 1
+     */
+    void recordProbes(int probes) {
+        this.operations++;
+        this.totalProbes += probes;
+        this.maxProbe = Math.max(this.maxProbe, probes);
+        this.probeHistogram[Math.min(probes, HISTOGRAM_SIZE - 1)]++;
+    }
+
+    void recordHit() {
+        this.hits++;
+    }
+
+    void recordMiss() {
+        this.misses++;
+    }
+
+    void recordInsert() {
+        this.inserts++;
+    }
+
+    void recordRemove() {
+        this.removes++;
+    }
+
+    void recordRehash() {
+        this.rehashes++;
+    }
+
+    void recordCollision() {
+        this.collisions++;
+    }
+
+    /**
+     * Clears every counter
+     */
+    void reset() {
+        this.hits = 0;
+        this.misses = 0;
+        this.inserts = 0;
+        this.removes = 0;
+        this.rehashes = 0;
+        this.collisions = 0;
+        this.operations = 0;
+        this.totalProbes = 0;
+        this.maxProbe = 0;
+        Arrays.fill(this.probeHistogram, 0);
+    }
+
+    /**
+     * Copies the counters and adds the current occupancy of the table
+     * @param size Number of live entries
+     * @param capacity Number of cells
+     * @param tombstones Number of lazily deleted cells
+     * @return A snapshot that later operations will not change
+     */
+    ProbeStats snapshot(int size, int capacity, int tombstones) {
+        ProbeStats copy = new ProbeStats();
+        copy.restore(this);
+        copy.size = size;
+        copy.capacity = capacity;
+        copy.tombstones = tombstones;
+        return copy;
+    }
+
+    /**
+     * Sets every counter back to the values of an earlier snapshot
+     * @param saved The snapshot to copy the counters from
+     */
+    void restore(ProbeStats saved) {
+        this.hits = saved.hits;
+        this.misses = saved.misses;
+        this.inserts = saved.inserts;
+        this.removes = saved.removes;
+        this.rehashes = saved.rehashes;
+        this.collisions = saved.collisions;
+        this.operations = saved.operations;
+        this.totalProbes = saved.totalProbes;
+        this.maxProbe = saved.maxProbe;
+        System.arraycopy(saved.probeHistogram, 0, this.probeHistogram, 0, HISTOGRAM_SIZE);
+    }
+
+    /**
+     * @return Lookups that found their item, including inserts of an item already present
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Lookups that did not find their item, including removes of an absent item
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Items added by insert
+     */
+    public long getInserts() {
+        return inserts;
+    }
+
+    /**
+     * @return Items taken out by remove
+     */
+    public long getRemoves() {
+        return removes;
+    }
+
+    /**
+     * @return Times the table was rebuilt, growing or at the same size
+     */
+    public long getRehashes() {
+        return rehashes;
+    }
+
+    /**
+     * @return Inserts whose home cell was already taken, a high count points at a weak hashCode or hasher
+     */
+    public long getCollisions() {
+        return collisions;
+    }
+
+    /**
+     * @return Operations whose probes were recorded
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return Average cells probed per operation, 0 when nothing was recorded
+     */
+    public double getAverageProbes() {
+        return operations == 0 ? 0 : (double) totalProbes / operations;
+    }
+
+    /**
+     * @return The longest probe of any recorded operation
+     */
+    public int getMaxProbe() {
+        return maxProbe;
+    }
+
+    /**
+     * Number of operations that probed a given number of cells
+     * @param probes Probe length; every length of HISTOGRAM_SIZE - 1 or more shares one bucket
+     * @return The count for that probe length
+     */
+    public long getProbeCount(int probes) {
+        return probeHistogram[Math.min(probes, HISTOGRAM_SIZE - 1)];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * @return Live entries divided by cells
+     */
+    public double getLoadFactor() {
+        return capacity == 0 ? 0 : (double) size / capacity;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("size=%d capacity=%d load=%.3f tombstones=%d%n", size, capacity, getLoadFactor(), tombstones));
+        sb.append(String.format("hits=%d misses=%d inserts=%d removes=%d rehashes=%d collisions=%d%n", hits, misses, inserts, removes, rehashes, collisions));
+        sb.append(String.format("avgProbes=%.3f maxProbe=%d histogram:", getAverageProbes(), maxProbe));
+        for (int i = 1; i < HISTOGRAM_SIZE; i++) {
+            if (probeHistogram[i] != 0) {
+                sb.append(" ").append(i).append(i == HISTOGRAM_SIZE - 1 ? "+" : "").append("=").append(probeHistogram[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,131 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reads and writes whole rows of an image as packed ARGB ints, the same values getRGB and setRGB use.
+ * For the common image types the rows are copied straight out of the image's DataBufferInt or
+ * DataBufferByte, without going through the ColorModel for every pixel:
+ * TYPE_INT_ARGB and TYPE_INT_RGB are copied with System.arraycopy, and TYPE_4BYTE_ABGR and
+ * TYPE_3BYTE_BGR are assembled from their interleaved bytes. Any other type falls back to
+ * one getRGB or setRGB call per row.
+ * Reading is safe from several threads as long as each one passes its own row array.
+ */
+public class RasterAccess {
+    private enum Layout { INT_PACKED, BYTE_INTERLEAVED, OTHER }
+
+    private final BufferedImage img;
+    private final int width;
+    private final Layout layout;
+    private final boolean opaque;      // The image has no alpha, so every pixel reads as alpha 255
+    private int[] intData;
+    private byte[] byteData;
+    private int origin;                // Index of pixel (0, 0) in the data array
+    private int scanlineStride;
+    private int pixelStride;
+    private int redOffset;
+    private int greenOffset;
+    private int blueOffset;
+    private int alphaOffset;
+
+    /**
+     * Sets up row access to an image
+     * @param img The image to read or write
+     */
+    RasterAccess(BufferedImage img) {
+        this.img = img;
+        this.width = img.getWidth();
+        this.opaque = !img.getColorModel().hasAlpha();
+        WritableRaster raster = img.getRaster();
+        int type = img.getType();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+
+        if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            this.intData = buffer.getData();
+            this.scanlineStride = sm.getScanlineStride();
+            this.origin = buffer.getOffset() - translateY * this.scanlineStride - translateX;
+            this.layout = Layout.INT_PACKED;
+        } else if ((type == BufferedImage.TYPE_4BYTE_ABGR || type == BufferedImage.TYPE_3BYTE_BGR)
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof ComponentSampleModel) {
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            int[] bandOffsets = sm.getBandOffsets();
+            this.byteData = buffer.getData();
+            this.scanlineStride = sm.getScanlineStride();
+            this.pixelStride = sm.getPixelStride();
+            this.origin = buffer.getOffset() - translateY * this.scanlineStride - translateX * this.pixelStride;
+            // The bands are in ColorModel order: red, green, blue, then alpha if there is one
+            this.redOffset = bandOffsets[0];
+            this.greenOffset = bandOffsets[1];
+            this.blueOffset = bandOffsets[2];
+            this.alphaOffset = this.opaque ? -1 : bandOffsets[3];
+            this.layout = Layout.BYTE_INTERLEAVED;
+        } else {
+            this.layout = Layout.OTHER;
+        }
+    }
+
+    /**
+     * Makes an image whose rows setRow can copy straight into its DataBufferInt
+     * @param width Width of the image
+     * @param height Height of the image
+     * @return A new TYPE_INT_ARGB image
+     */
+    static BufferedImage newImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Reads one row of pixels, left to right
+     * @param y The row to read
+     * @param row Receives the ARGB value of each pixel; it must hold at least width values
+     * @return row
+     */
+    int[] getRow(int y, int[] row) {
+        switch (this.layout) {
+            case INT_PACKED:
+                int start = this.origin + y * this.scanlineStride;
+                System.arraycopy(this.intData, start, row, 0, this.width);
+                if (this.opaque) {
+                    for (int x = 0; x < this.width; x++) {
+                        row[x] |= 0xff000000;
+                    }
+                }
+                break;
+            case BYTE_INTERLEAVED:
+                byte[] data = this.byteData;
+                int i = this.origin + y * this.scanlineStride;
+                for (int x = 0; x < this.width; x++, i += this.pixelStride) {
+                    int alpha = this.alphaOffset < 0 ? 0xff : data[i + this.alphaOffset] & 0xff;
+                    row[x] = alpha << 24 | (data[i + this.redOffset] & 0xff) << 16
+                            | (data[i + this.greenOffset] & 0xff) << 8 | (data[i + this.blueOffset] & 0xff);
+                }
+                break;
+            default:
+                this.img.getRGB(0, y, this.width, 1, row, 0, this.width);
+        }
+        return row;
+    }
+
+    /**
+     * Writes one row of pixels, left to right
+     * @param y The row to write
+     * @param row The ARGB value of each pixel
+     */
+    void setRow(int y, int[] row) {
+        if (this.layout == Layout.INT_PACKED && !this.opaque) {
+            System.arraycopy(row, 0, this.intData, this.origin + y * this.scanlineStride, this.width);
+        } else {
+            this.img.setRGB(0, y, this.width, 1, row, 0, this.width);
+        }
+    }
+}
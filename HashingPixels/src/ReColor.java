@@ -2,17 +2,58 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class ReColor {
+    /**
+     * How getHistogram counts the colors of the image
+     * HASH_TABLE probes the HashTable with one reused ColorMap and only copies it when a new cube goes in
+     * INT_TABLE counts packed cube keys in an IntHashTable, without a ColorMap per distinct cube
+     * CONCURRENT splits the rows between worker threads that all count into one ConcurrentHashTable
+     * APPROXIMATE streams the pixels through a Count-Min sketch and a Space-Saving summary in fixed memory,
+     * and only keeps the most frequent cubes, with countError set on each
+     * FORK_JOIN splits the rows into bands on a fork/join pool, counts each band into its own IntHashTable
+     * and merges the partial counts as the bands join
+     */
+    public enum HistogramMode { HASH_TABLE, INT_TABLE, CONCURRENT, APPROXIMATE, FORK_JOIN }
+
+    /**
+     * How getNewImage picks the colors of the new image
+     * POPULARITY keeps the colorLimit cubes of the histogram with the most pixels, found without sorting all of them
+     * OCTREE streams the pixels into an OctreeQuantizer, without building the histogram,
+     * and uses the average colors of the leaves left after folding it down to colorLimit
+     * MEDIAN_CUT splits the histogram's cubes into colorLimit boxes with MedianCut and uses the average color of each box
+     */
+    public enum PaletteEngine { POPULARITY, OCTREE, MEDIAN_CUT }
+
+    private static final int BANDS_PER_WORKER = 4;  // Fork/join bands per worker, so idle workers can steal
+
+    // Sizes of the APPROXIMATE histogram, fixed however many colors the image has
+    private static final int HEAVY_HITTERS_PER_COLOR = 8;  // Space-Saving counters kept per wanted color
+    private static final int MIN_HEAVY_HITTERS = 256;
+    private static final int SKETCH_WIDTH = 4096;
+    private static final int SKETCH_DEPTH = 4;
+
+    private static final int OCTREE_LEAVES = 1024;  // Octree leaves kept while streaming, unless colorLimit is more
+
     BufferedImage img;
+    RasterAccess pixels;
     String imageName;
     String redImageName;
+    String histogramName;
     int cube;
     int height = 0;
     int width = 0;
     int colorLimit = 0;
+    HistogramMode histogramMode = HistogramMode.HASH_TABLE;
+    PaletteEngine paletteEngine = PaletteEngine.POPULARITY;
+    int workers = Runtime.getRuntime().availableProcessors();
+    boolean histogramCache = false;
+    File source;
 
     /**
      * Set up the ReColor Class
@@ -29,30 +70,74 @@ public class ReColor {
         System.out.println("File name " + filename);
         imageName = p[0] + colorLimit + "." + p[1];
         redImageName = p[0] + "Red." + p[1];
+        histogramName = p[0] + ".cube" + cube + ".hist";
         try {
             f = new File(
                     filename);
             img = ImageIO.read(f);
+            source = f;
         } catch (Exception e) {
             System.out.println(e.getMessage());
         }
         width = img.getWidth();
         height = img.getHeight();
+        pixels = new RasterAccess(img);
+    }
+
+    /**
+     * Chooses how the color histogram is built
+     * @param mode The histogram mode to use for later calls to getNewImage
+     */
+    public void setHistogramMode(HistogramMode mode) {
+        this.histogramMode = mode;
+    }
+
+    /**
+     * Chooses how the palette of the new image is built
+     * @param engine The palette engine to use for later calls to getNewImage
+     */
+    public void setPaletteEngine(PaletteEngine engine) {
+        this.paletteEngine = engine;
+    }
+
+    /**
+     * Sets how many threads the parallel modes and the remap use
+     * @param workers Number of worker threads, at least 1
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Turns the histogram file cache on or off
+     * When on, getHistogram reads the histogram saved by an earlier run for the same image and cube size,
+     * as long as it is newer than the image, and otherwise saves the one it counts
+     * @param cache true to read and write histogram files
+     */
+    public void setHistogramCache(boolean cache) {
+        this.histogramCache = cache;
     }
 
     public void makeRed() {
-        BufferedImage img2 = new BufferedImage(width, height, img.getType());
+        BufferedImage img2 = RasterAccess.newImage(width, height);
+        RasterAccess out = new RasterAccess(img2);
+        int[] row = new int[width];
         for (int y = 0; y < height; y++) {
+            pixels.getRow(y, row);
             for (int x = 0; x < width; x++) {
-                int p = img.getRGB(x, y);
+                int p = row[x];
                 int alpha = (p >> 24) & 0xff; //transparency measure
                 int r = (p >> 16) & 0xff;  //red
                 int g = (p >> 8) & 0xff;   //green
                 int b = p & 0xff;          //blue
                 // set new RGB keeping the alpha and the color wanted. Setting others to 0.
                 p = (alpha << 24) | (r << 16) | (0 << 8) | 0;//Show red
-                img2.setRGB(x, y, p);
+                row[x] = p;
             }
+            out.setRow(y, row);
         }
         try {
             File f = new File(
@@ -64,51 +149,411 @@ public class ReColor {
     }
 
     public void getNewImage() {
-        // Make a hash table of all color maps
-        // Gets a list of all color maps in the hash table
-        // Makes color table of most prevalent color maps
-        HashTable<ColorMap> map = this.getColorMaps();
-        ArrayList<ColorMap> list = map.getAll();
-        list.sort(Comparator.reverseOrder());
+        ColorMap[] colorTable;
+        if (this.paletteEngine == PaletteEngine.OCTREE) {
+            colorTable = this.getOctreePalette();
+        } else {
+            // Count the pixels of every cube by its packed key
+            // Makes the color table from MedianCut's boxes, or from the most prevalent cubes
+            CountTable histogram = this.getHistogram();
+            if (this.paletteEngine == PaletteEngine.MEDIAN_CUT) {
+                colorTable = new MedianCut(histogram, this.cube).getPalette(this.colorLimit);
+            } else {
+                colorTable = this.getPopularPalette(histogram);
+            }
+        }
+        if (colorTable.length == 0) {
+            return;
+        }
 
-        ColorMap[] colorTable = new ColorMap[this.colorLimit];
-        for (int i = 0; i < colorTable.length; i++) {
-            colorTable[i] = list.get(i);
+        // Map every cube to its nearest color in the table once, then repaint the pixels with one table read each
+        PaletteLookup lookup = new PaletteLookup(colorTable, this.cube);
+        BufferedImage newImg = RasterAccess.newImage(this.width, this.height);
+        ForkJoinPool pool = new ForkJoinPool(this.workers);
+        try {
+            pool.invoke(new BandRemap(lookup, new RasterAccess(newImg), 0, this.height, this.bandRows()));
+        } finally {
+            pool.shutdown();
+        }
+        try {
+            ImageIO.write(newImg, "png", new File(imageName));
+        } catch (Exception e) {
+            System.out.println(e);
         }
+    }
 
+    /**
+     * Builds the palette with an OctreeQuantizer, in one pass over the pixels and fixed memory
+     * Each leaf's average color is put in its cube, the same as the histogram's colors, so PaletteLookup can map to it
+     * @return Up to colorLimit colors, most pixels first
+     */
+    private ColorMap[] getOctreePalette() {
+        OctreeQuantizer octree = new OctreeQuantizer(Math.min(OctreeQuantizer.MAX_LEAVES, Math.max(this.colorLimit, OCTREE_LEAVES)));
+        int[] row = new int[this.width];
+        for (int y = 0; y < this.height; y++) {
+            this.pixels.getRow(y, row);
+            for (int x = 0; x < this.width; x++) {
+                octree.add(row[x]);
+            }
+        }
+        return octree.getPalette(this.colorLimit, this.cube);
+    }
+
+    /**
+     * Picks the colorLimit cubes with the most pixels with a bounded min-heap, without sorting all of them
+     * Each cube is ranked by one long, its count above its inverted key, so equal counts keep the lower key
+     * the way ColorMap.compareTo orders them, and only the chosen cubes become ColorMaps
+     * @param histogram The pixel count of every cube
+     * @return Up to colorLimit colors, most pixels first
+     */
+    private ColorMap[] getPopularPalette(CountTable histogram) {
+        int limit = this.colorLimit;
+        if (limit < 1) {
+            return new ColorMap[0];
+        }
+        PriorityQueue<Long> heap = new PriorityQueue<>(limit);
+        histogram.forEach((key, count) -> {
+            long rank = (long) count << 32 | (~key & 0xffffffffL);
+            if (heap.size() < limit) {
+                heap.add(rank);
+            } else if (rank > heap.peek()) {
+                heap.poll();
+                heap.add(rank);
+            }
+        });
+
+        ColorMap[] palette = new ColorMap[heap.size()];
+        for (int i = palette.length - 1; i >= 0; i--) {
+            long rank = heap.poll();
+            int key = ~(int) rank;
+            palette[i] = this.colorMapOf(key, (int) (rank >>> 32));
+            palette[i].countError = histogram.error(key);
+        }
+        return palette;
+    }
+
+    /**
+     * Rows per fork/join band, small enough for each worker to get several
+     * @return The most rows a band is left with before it stops splitting
+     */
+    private int bandRows() {
+        return Math.max(1, this.height / (this.workers * BANDS_PER_WORKER));
+    }
+
+    /**
+     * Repaints a band of rows with the palette color of each pixel's cube, keeping the pixel's alpha
+     * Splits in half until the band has at most maxRows rows, and each half writes its own rows of the new image
+     */
+    private class BandRemap extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final PaletteLookup lookup;
+        private final RasterAccess out;
+        private final int startY;
+        private final int endY;
+        private final int maxRows;
+
+        BandRemap(PaletteLookup lookup, RasterAccess out, int startY, int endY, int maxRows) {
+            this.lookup = lookup;
+            this.out = out;
+            this.startY = startY;
+            this.endY = endY;
+            this.maxRows = maxRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.endY - this.startY > this.maxRows) {
+                int mid = (this.startY + this.endY) >>> 1;
+                invokeAll(new BandRemap(this.lookup, this.out, this.startY, mid, this.maxRows),
+                        new BandRemap(this.lookup, this.out, mid, this.endY, this.maxRows));
+                return;
+            }
+            int[] row = new int[ReColor.this.width];
+            for (int y = this.startY; y < this.endY; y++) {
+                ReColor.this.pixels.getRow(y, row);
+                this.lookup.remapRow(row);
+                this.out.setRow(y, row);
+            }
+        }
+    }
+
+    /**
+     * Counts the pixels of every cube of the image, keyed by the cube's packed key
+     * @return The pixel count of every cube in the image
+     */
+    private CountTable getHistogram() {
+        // An approximate histogram is not worth saving, and must not replace an exact one
+        if (!this.histogramCache || this.histogramMode == HistogramMode.APPROXIMATE) {
+            return this.countHistogram();
+        }
+        File cacheFile = new File(this.histogramName);
+        if (cacheFile.isFile() && cacheFile.lastModified() >= this.source.lastModified()) {
+            try {
+                // The palette reads the saved counts from the mapped file in place
+                return MappedIntHashTable.load(cacheFile.toPath());
+            } catch (IOException e) {
+                System.out.println("Recounting, could not read " + cacheFile + ": " + e.getMessage());
+            }
+        }
 
+        CountTable histogram = this.countHistogram();
+        IntHashTable counts;
+        if (histogram instanceof IntHashTable) {
+            counts = (IntHashTable) histogram;
+        } else {
+            counts = new IntHashTable(2 * histogram.size());
+            histogram.forEach(counts::add);
+        }
+        try {
+            counts.save(cacheFile.toPath());
+        } catch (IOException e) {
+            System.out.println("Could not save " + cacheFile + ": " + e.getMessage());
+        }
+        return histogram;
     }
 
     /**
-     * Creates a hash table of all the color maps in the image
-     * Keeps track of the count of occurrences of each color map
-     * @return A Hash table with all color maps from image
+     * Counts the pixels of every cube with the current histogram mode
+     * @return The pixel count of every cube in the image
      */
-    private HashTable<ColorMap> getColorMaps() {
+    private CountTable countHistogram() {
+        if (this.histogramMode == HistogramMode.INT_TABLE) {
+            return this.getHistogramPacked();
+        }
+        if (this.histogramMode == HistogramMode.CONCURRENT) {
+            return this.getHistogramConcurrent();
+        }
+        if (this.histogramMode == HistogramMode.APPROXIMATE) {
+            return this.getHistogramApproximate();
+        }
+        if (this.histogramMode == HistogramMode.FORK_JOIN) {
+            return this.getHistogramForkJoin();
+        }
         HashTable<ColorMap> colorMaps = new HashTable<>();
-        BufferedImage newImg = new BufferedImage(this.width, this.height, this.img.getType());
-        for (int x = 0; x < this.width; x++) {
-            for (int y = 0; y < this.height; y++) {
+        ColorMap probe = ColorMap.fromKey(0, this.cube);
+        int[] row = new int[this.width];
+        for (int y = 0; y < this.height; y++) {
+            this.pixels.getRow(y, row);
+            for (int x = 0; x < this.width; x++) {
                 // Get value for each color
-                int p = img.getRGB(x, y);
-                int alpha = (p >> 24) & 0xff; //transparency measure
+                int p = row[x];
                 int r = (p >> 16) & 0xff;  //red
                 int g = (p >> 8) & 0xff;   //green
                 int b = p & 0xff;
 
-                // Finds the color map for the current pixel
-                // If it is in the hash table then increase the count
-                // If not, then insert in the hash table
-                ColorMap currentMap = new ColorMap(alpha, r, g, b, this.cube);
-                ColorMap found = colorMaps.find(currentMap);
-                if (found == null) {
-                    colorMaps.insert(currentMap);
+                // Finds the color map for the current pixel, copying the probe into the hash table if it isn't there
+                // Either way increase the count
+                probe.setKey(ColorMap.keyOf(r, g, b, this.cube));
+                ColorMap found = colorMaps.computeIfAbsent(probe, ColorMap::copy);
+                found.occurCt++;
+            }
+        }
+        return countsOf(colorMaps);
+    }
+
+    /**
+     * Counts the pixels with packed cube keys in an IntHashTable, so counting the pixels does not allocate
+     * @return The pixel count of every cube in the image
+     */
+    private IntHashTable getHistogramPacked() {
+        IntHashTable counts = new IntHashTable();
+        int[] row = new int[this.width];
+        for (int y = 0; y < this.height; y++) {
+            this.pixels.getRow(y, row);
+            for (int x = 0; x < this.width; x++) {
+                int p = row[x];
+                counts.increment(ColorMap.keyOf((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, this.cube));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts only the most frequent cubes, in one pass and fixed memory
+     * Every pixel's cube key goes into a Count-Min sketch and a Space-Saving summary of
+     * HEAVY_HITTERS_PER_COLOR * colorLimit counters. Each kept cube's count is the smaller of
+     * its two estimates, neither of which can be under the true count, and its error is how far
+     * the count is above the count Space-Saving guarantees, so the true count is within [count - error, count]
+     * @return The estimated pixel count of the most frequent cubes
+     */
+    private CountTable getHistogramApproximate() {
+        CountMinSketch sketch = new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH);
+        SpaceSaving heavyHitters = new SpaceSaving(Math.max(MIN_HEAVY_HITTERS, HEAVY_HITTERS_PER_COLOR * this.colorLimit));
+        int[] row = new int[this.width];
+        for (int y = 0; y < this.height; y++) {
+            this.pixels.getRow(y, row);
+            for (int x = 0; x < this.width; x++) {
+                int p = row[x];
+                int key = ColorMap.keyOf((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, this.cube);
+                sketch.add(key);
+                heavyHitters.offer(key);
+            }
+        }
+
+        // A kept key's own pixels since it took its counter over are at least 1, so both fit in an IntHashTable
+        IntHashTable estimates = new IntHashTable(2 * heavyHitters.size());
+        IntHashTable guaranteed = new IntHashTable(2 * heavyHitters.size());
+        heavyHitters.forEach((key, count, error) -> {
+            estimates.add(key, Math.min(count, sketch.estimate(key)));
+            guaranteed.add(key, count - error);
+        });
+        return new CountTable() {
+            @Override
+            public void forEach(IntHashTable.EntryVisitor visitor) {
+                estimates.forEach(visitor);
+            }
+
+            @Override
+            public int size() {
+                return estimates.size();
+            }
+
+            @Override
+            public int error(int key) {
+                return estimates.get(key) - guaranteed.get(key);
+            }
+        };
+    }
+
+    /**
+     * Views a hash table of color maps as the pixel count of each cube key
+     * @param colorMaps Color maps with occurCt set on each
+     * @return A CountTable that reads the color maps in place
+     */
+    private static CountTable countsOf(HashTable<ColorMap> colorMaps) {
+        return new CountTable() {
+            @Override
+            public void forEach(IntHashTable.EntryVisitor visitor) {
+                for (ColorMap map : colorMaps) {
+                    visitor.visit(map.key(), map.occurCt);
+                }
+            }
+
+            @Override
+            public int size() {
+                return colorMaps.size();
+            }
+        };
+    }
+
+    /**
+     * Makes the ColorMap for a packed cube key
+     * @param key The packed cube key, as made by ColorMap.keyOf
+     * @param count Number of pixels in the cube
+     * @return The ColorMap for the cube with its count set
+     */
+    private ColorMap colorMapOf(int key, int count) {
+        ColorMap map = ColorMap.fromKey(key, this.cube);
+        map.occurCt = count;
+        return map;
+    }
+
+    /**
+     * Counts the color maps of the image with the rows split into one band per worker thread
+     * Every thread counts into one shared ConcurrentHashTable, whose lock striping lets them insert at the same time
+     * @return The pixel count of every cube in the image, read from the shared table in place
+     */
+    private CountTable getHistogramConcurrent() {
+        ConcurrentHashTable<ColorMap> shared = new ConcurrentHashTable<>(this.workers);
+        Thread[] threads = new Thread[Math.min(this.workers, Math.max(1, this.height))];
+        int band = (this.height + threads.length - 1) / threads.length;
+        for (int t = 0; t < threads.length; t++) {
+            int startY = t * band;
+            int endY = Math.min(this.height, startY + band);
+            threads[t] = new Thread(() -> {
+                ColorMap probe = ColorMap.fromKey(0, this.cube);  // One per thread, since the table only copies it
+                int[] row = new int[this.width];
+                for (int y = startY; y < endY; y++) {
+                    this.pixels.getRow(y, row);
+                    for (int x = 0; x < this.width; x++) {
+                        int p = row[x];
+                        probe.setKey(ColorMap.keyOf((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, this.cube));
+                        shared.computeAndUpdate(probe, ColorMap::copy, found -> found.occurCt++);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building the color histogram", e);
+            }
+        }
+        return new CountTable() {
+            @Override
+            public void forEach(IntHashTable.EntryVisitor visitor) {
+                shared.forEach(map -> visitor.visit(map.key(), map.occurCt));
+            }
+
+            @Override
+            public int size() {
+                return shared.size();
+            }
+        };
+    }
+
+    /**
+     * Counts the pixels with packed cube keys on a fork/join pool of workers threads
+     * The rows are split into bands, each band is counted into its own IntHashTable, and
+     * the partial counts are merged as the bands join, so no table is shared while counting
+     * @return The pixel count of every cube in the image
+     */
+    private IntHashTable getHistogramForkJoin() {
+        ForkJoinPool pool = new ForkJoinPool(this.workers);
+        try {
+            return pool.invoke(new BandHistogram(0, this.height, this.bandRows()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Counts the cube keys of a band of rows
+     * Splits in half until the band has at most maxRows rows, then adds the smaller half's counts into the larger
+     */
+    private class BandHistogram extends RecursiveTask<IntHashTable> {
+        private static final long serialVersionUID = 1L;
+        private final int startY;
+        private final int endY;
+        private final int maxRows;
+
+        BandHistogram(int startY, int endY, int maxRows) {
+            this.startY = startY;
+            this.endY = endY;
+            this.maxRows = maxRows;
+        }
+
+        @Override
+        protected IntHashTable compute() {
+            if (this.endY - this.startY > this.maxRows) {
+                int mid = (this.startY + this.endY) >>> 1;
+                BandHistogram top = new BandHistogram(this.startY, mid, this.maxRows);
+                top.fork();
+                IntHashTable bottom = new BandHistogram(mid, this.endY, this.maxRows).compute();
+                IntHashTable merged = top.join();
+                IntHashTable smaller = merged;
+                if (bottom.size() > merged.size()) {
+                    merged = bottom;
                 } else {
-                    found.occurCt++;
+                    smaller = bottom;
+                }
+                smaller.forEach(merged::add);
+                return merged;
+            }
+            IntHashTable counts = new IntHashTable();
+            int[] row = new int[ReColor.this.width];
+            for (int y = this.startY; y < this.endY; y++) {
+                ReColor.this.pixels.getRow(y, row);
+                for (int x = 0; x < row.length; x++) {
+                    int p = row[x];
+                    counts.increment(ColorMap.keyOf((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, ReColor.this.cube));
                 }
             }
+            return counts;
         }
-        return colorMaps;
     }
 
 
@@ -0,0 +1,181 @@
+
+// Space-Saving heavy hitters of int keys
+//
+// CONSTRUCTION: the number of counters to keep
+//
+// ******************PUBLIC OPERATIONS*********************
+// void offer( key )      --> Count key once
+// void forEach( v )      --> Visit every kept key with its count and error
+// int size( )            --> Number of keys kept
+// void makeEmpty( )      --> Forget every key
+
+/**
+ * Keeps a fixed number of counters and follows the most frequent int keys of a stream.
+ * A key that is already kept has its counter raised. A new key takes over the counter
+ * with the smallest count once every counter is in use: it inherits that count plus one,
+ * and the inherited part is remembered as its error. So a kept key's count is never below
+ * its true count and at most error above it, and any key seen more than total / capacity
+ * times is sure to be kept.
+ * The counters sit in a min-heap so the smallest is found at once, and an open addressing
+ * index from key to counter, with backward-shift deletion, finds a kept key in about one probe.
+ */
+public class SpaceSaving
+{
+    /**
+     * Receives each kept key from forEach.
+     */
+    public interface CounterVisitor
+    {
+        void visit( int key, int count, int error );
+    }
+
+    /**
+     * Construct the summary.
+     * @param capacity the number of keys to keep.
+     */
+    public SpaceSaving( int capacity )
+    {
+        if( capacity < 1 )
+            throw new IllegalArgumentException( "capacity must be positive: " + capacity );
+        keys = new int[ capacity ];
+        counts = new int[ capacity ];
+        errors = new int[ capacity ];
+        heap = new int[ capacity ];
+        heapPos = new int[ capacity ];
+        index = new int[ HashTable.nextPowerOfTwo( 2 * capacity ) ];
+    }
+
+    /**
+     * Count one occurrence of key.
+     * @param key the key to count.
+     */
+    public void offer( int key )
+    {
+        int pos = indexPos( key );
+        int counter = index[ pos ] - 1;
+        if( counter < 0 )
+        {
+            if( size < keys.length )
+            {
+                // A free counter: start it at zero and put it at the end of the heap
+                counter = size++;
+                counts[ counter ] = 0;
+                errors[ counter ] = 0;
+                heap[ counter ] = counter;
+                heapPos[ counter ] = counter;
+                siftUp( counter );
+            }
+            else
+            {
+                // Take over the smallest counter; its count becomes the new key's error
+                counter = heap[ 0 ];
+                indexRemove( indexPos( keys[ counter ] ) );
+                errors[ counter ] = counts[ counter ];
+                pos = indexPos( key );
+            }
+            keys[ counter ] = key;
+            index[ pos ] = counter + 1;
+        }
+        counts[ counter ]++;
+        siftDown( heapPos[ counter ] );
+    }
+
+    /**
+     * Visit every kept key with its count and error, in no particular order.
+     * @param visitor receives each key, its count, and how much of the count may not be its own.
+     */
+    public void forEach( CounterVisitor visitor )
+    {
+        for( int counter = 0; counter < size; counter++ )
+            visitor.visit( keys[ counter ], counts[ counter ], errors[ counter ] );
+    }
+
+    /**
+     * Get the number of keys kept.
+     * @return the size, at most the capacity.
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    /**
+     * Forget every key.
+     */
+    public void makeEmpty( )
+    {
+        java.util.Arrays.fill( index, 0 );
+        size = 0;
+    }
+
+    /**
+     * Find the index cell for key: the one holding its counter, or the empty cell where the search ended.
+     */
+    private int indexPos( int key )
+    {
+        int mask = index.length - 1;
+        int pos = Hasher.MURMUR3.spread( key ) & mask;
+        while( index[ pos ] != 0 && keys[ index[ pos ] - 1 ] != key )
+            pos = ( pos + 1 ) & mask;
+        return pos;
+    }
+
+    /**
+     * Empty an index cell, shifting back the entries after it that probed past it.
+     */
+    private void indexRemove( int pos )
+    {
+        int mask = index.length - 1;
+        int next = ( pos + 1 ) & mask;
+        while( index[ next ] != 0 )
+        {
+            int home = Hasher.MURMUR3.spread( keys[ index[ next ] - 1 ] ) & mask;
+            // Move the entry back unless its home lies after the hole, up to where it sits
+            if( ( ( next - home ) & mask ) >= ( ( next - pos ) & mask ) )
+            {
+                index[ pos ] = index[ next ];
+                pos = next;
+            }
+            next = ( next + 1 ) & mask;
+        }
+        index[ pos ] = 0;
+    }
+
+    private void siftUp( int hole )
+    {
+        int counter = heap[ hole ];
+        for( ; hole > 0 && counts[ heap[ ( hole - 1 ) / 2 ] ] > counts[ counter ]; hole = ( hole - 1 ) / 2 )
+            setHeap( hole, heap[ ( hole - 1 ) / 2 ] );
+        setHeap( hole, counter );
+    }
+
+    private void siftDown( int hole )
+    {
+        int counter = heap[ hole ];
+        int child;
+        for( ; hole * 2 + 1 < size; hole = child )
+        {
+            child = hole * 2 + 1;
+            if( child + 1 < size && counts[ heap[ child + 1 ] ] < counts[ heap[ child ] ] )
+                child++;
+            if( counts[ heap[ child ] ] >= counts[ counter ] )
+                break;
+            setHeap( hole, heap[ child ] );
+        }
+        setHeap( hole, counter );
+    }
+
+    private void setHeap( int hole, int counter )
+    {
+        heap[ hole ] = counter;
+        heapPos[ counter ] = hole;
+    }
+
+    private final int [ ] keys;     // Key of each counter
+    private final int [ ] counts;   // Count of each counter, never below the key's true count
+    private final int [ ] errors;   // Count the key inherited when it took the counter over
+    private final int [ ] heap;     // Counters ordered as a min-heap on count
+    private final int [ ] heapPos;  // Position of each counter in heap
+    private final int [ ] index;    // Counter + 1 for each kept key, 0 for an empty cell
+    private int size;               // Counters in use
+}
@@ -0,0 +1,385 @@
+
+// Swiss table style Hash table class
+//
+// CONSTRUCTION: an approximate initial size or default of 128
+//
+// ******************PUBLIC OPERATIONS*********************
+// bool insert( x )       --> Insert x
+// bool remove( x )       --> Remove x
+// bool contains( x )     --> Return true if x is present
+// E find( x )            --> Return the item equal to x
+// E computeIfAbsent( x, f ) --> Find x, or insert f( x ), in one probe
+// void makeEmpty( )      --> Remove all items
+
+
+import java.util.ArrayList;
+import java.util.function.Function;
+
+/**
+ * Hash table in the style of the Swiss tables, with the same operations as HashTable.
+ * Every cell has one control byte: EMPTY, DELETED, or for a live cell the low 7 bits of its
+ * element's hash. The control bytes of 8 neighbouring cells are packed into one long, a group,
+ * and a probe tests all 8 at once with bit tricks on that long (SWAR, SIMD within a register).
+ * equals is only called on cells whose 7 hash bits match, and a miss ends at the first group
+ * that has an EMPTY cell. Groups are probed in triangular order over a power-of-two number of groups.
+ * Note that all "matching" is based on the equals method.
+ */
+public class SwissHashTable<E>
+{
+    /**
+     * Construct the hash table.
+     */
+    public SwissHashTable( )
+    {
+        this( DEFAULT_TABLE_SIZE );
+    }
+
+    /**
+     * Construct the hash table.
+     * @param size the approximate initial size.
+     */
+    public SwissHashTable( int size )
+    {
+        allocateArrays( size );
+    }
+
+    /**
+     * Insert into the hash table. If the item is
+     * already present, do nothing.
+     * @param x the item to insert.
+     */
+    public boolean insert( E x )
+    {
+        int before = currentSize;
+        insertItem( x, null );
+        return currentSize > before;
+    }
+
+    /**
+     * Find an item, inserting one made from it if it is not present, with a single probe.
+     * @param x the item to search for.
+     * @param factory makes the item to insert from x; it must be equal to x.
+     * @return the item already in the table, or the one just inserted.
+     */
+    public E computeIfAbsent( E x, Function<? super E, ? extends E> factory )
+    {
+        return insertItem( x, factory );
+    }
+
+    /**
+     * Probe for x; if it is absent, put it in the first EMPTY or DELETED cell the probe passed.
+     * @param x the item to insert.
+     * @param factory makes the item to insert from x, or null to insert x itself.
+     * @return the item equal to x now in the table.
+     */
+    @SuppressWarnings( "unchecked" )
+    private E insertItem( E x, Function<? super E, ? extends E> factory )
+    {
+        int hash = Hasher.MURMUR3.spread( x.hashCode( ) );
+        int h2 = hash & 0x7F;
+        int group = ( hash >>> 7 ) & groupMask;
+        int insertPos = -1;
+        int probeCount = 0;
+
+        for( int step = 1; ; step++ )
+        {
+            probeCount++;
+            long word = control[ group ];
+            for( long m = matchByte( word, h2 ); m != 0; m &= m - 1 )
+            {
+                int currentPos = group * GROUP_WIDTH + ( Long.numberOfTrailingZeros( m ) >>> 3 );
+                if( elements[ currentPos ].equals( x ) )
+                {
+                    recordOperation( probeCount );
+                    stats.recordHit( );
+                    return (E) elements[ currentPos ];
+                }
+            }
+            long free = matchEmptyOrDeleted( word );
+            if( insertPos == -1 && free != 0 )
+                insertPos = group * GROUP_WIDTH + ( Long.numberOfTrailingZeros( free ) >>> 3 );
+            if( matchEmpty( word ) != 0 )
+                break;
+            group = ( group + step ) & groupMask;  // Triangular probing over the groups
+        }
+        recordOperation( probeCount );
+        stats.recordInsert( );
+        if( probeCount > 1 )
+            stats.recordCollision( );  // Here a collision means the home group had no room
+
+        E item = factory == null ? x : factory.apply( x );
+        if( getControl( insertPos ) == DELETED )
+            deletedCt--;
+        elements[ insertPos ] = item;
+        setControl( insertPos, (byte) h2 );
+        currentSize++;
+
+        if( currentSize + deletedCt > elements.length * MAX_LOAD )
+        {
+            // Grow when live cells alone are over half the limit, otherwise just clear out DELETED cells
+            if( currentSize > elements.length * MAX_LOAD / 2 )
+                rehash( 2 * elements.length );
+            else
+                rehash( elements.length );
+        }
+        return item;
+    }
+
+    /**
+     * Find the cell holding x.
+     * @param x the item to search for.
+     * @return the cell, or -1 if x is not present.
+     */
+    private int findPos( E x )
+    {
+        int hash = Hasher.MURMUR3.spread( x.hashCode( ) );
+        int h2 = hash & 0x7F;
+        int group = ( hash >>> 7 ) & groupMask;
+        int probeCount = 0;
+
+        for( int step = 1; ; step++ )
+        {
+            probeCount++;
+            long word = control[ group ];
+            for( long m = matchByte( word, h2 ); m != 0; m &= m - 1 )
+            {
+                int currentPos = group * GROUP_WIDTH + ( Long.numberOfTrailingZeros( m ) >>> 3 );
+                if( elements[ currentPos ].equals( x ) )
+                {
+                    recordOperation( probeCount );
+                    stats.recordHit( );
+                    return currentPos;
+                }
+            }
+            if( matchEmpty( word ) != 0 )
+            {
+                recordOperation( probeCount );
+                stats.recordMiss( );
+                return -1;
+            }
+            group = ( group + step ) & groupMask;
+        }
+    }
+
+    /**
+     * Marks, with the high bit of each byte, the bytes of word equal to b.
+     * Can also mark a byte just above a real match, which the equals check then rejects.
+     */
+    private static long matchByte( long word, int b )
+    {
+        long x = word ^ ( LSBS * b );
+        return ( x - LSBS ) & ~x & MSBS;
+    }
+
+    /**
+     * Marks the EMPTY bytes of word: high bit set and bit 1 clear.
+     */
+    private static long matchEmpty( long word )
+    {
+        return word & ( ~word << 6 ) & MSBS;
+    }
+
+    /**
+     * Marks the EMPTY and DELETED bytes of word, the only ones with the high bit set.
+     */
+    private static long matchEmptyOrDeleted( long word )
+    {
+        return word & MSBS;
+    }
+
+    private byte getControl( int currentPos )
+    {
+        return (byte) ( control[ currentPos / GROUP_WIDTH ] >>> ( 8 * ( currentPos % GROUP_WIDTH ) ) );
+    }
+
+    private void setControl( int currentPos, byte b )
+    {
+        int shift = 8 * ( currentPos % GROUP_WIDTH );
+        int group = currentPos / GROUP_WIDTH;
+        control[ group ] = ( control[ group ] & ~( 0xFFL << shift ) ) | ( ( b & 0xFFL ) << shift );
+    }
+
+    /**
+     * Rebuild the hash table into new arrays.
+     * @param newSize the approximate number of cells.
+     */
+    private void rehash( int newSize )
+    {
+        Object [ ] oldElements = elements;
+        long [ ] oldControl = control;
+
+        allocateArrays( newSize );
+        stats.recordRehash( );
+        for( int i = 0; i < oldElements.length; i++ )
+            if( ( oldControl[ i / GROUP_WIDTH ] >>> ( 8 * ( i % GROUP_WIDTH ) ) & 0x80 ) == 0 )
+            {
+                int hash = Hasher.MURMUR3.spread( oldElements[ i ].hashCode( ) );
+                int group = ( hash >>> 7 ) & groupMask;
+                for( int step = 1; matchEmpty( control[ group ] ) == 0; step++ )
+                    group = ( group + step ) & groupMask;
+                int currentPos = group * GROUP_WIDTH + ( Long.numberOfTrailingZeros( matchEmpty( control[ group ] ) ) >>> 3 );
+                elements[ currentPos ] = oldElements[ i ];
+                setControl( currentPos, (byte) ( hash & 0x7F ) );
+                currentSize++;
+            }
+    }
+
+    private void recordOperation( int probeCount )
+    {
+        this.totalProbeCount += probeCount;
+        this.totalUses++;
+        stats.recordProbes( probeCount );
+    }
+
+    /**
+     * Returns the average number of groups probed per operation. Not reset by a rehash.
+     * @return The average probe count per operation
+     */
+    public float getAverageProbeCount() {
+        return (float) this.totalProbeCount / this.totalUses;
+    }
+
+    /**
+     * Returns a snapshot of the probe and occupancy statistics, with the same reset rules as HashTable.
+     * A probe here is one group of GROUP_WIDTH cells.
+     * @return statistics that later operations will not change
+     */
+    public ProbeStats getStatistics( )
+    {
+        return stats.snapshot( currentSize, elements.length, deletedCt );
+    }
+
+    /**
+     * Clear the counters behind getStatistics.
+     */
+    public void resetStatistics( )
+    {
+        stats.reset( );
+    }
+
+    /**
+     * Returns an ArrayList of all elements in the table
+     * @return ArrayList of all elements in the table
+     */
+    @SuppressWarnings( "unchecked" )
+    public ArrayList<E> getAll() {
+        ArrayList<E> allData = new ArrayList<>(currentSize);
+        for (int i = 0; i < elements.length; i++) {
+            if ((getControl(i) & 0x80) == 0) {
+                allData.add((E) elements[i]);
+            }
+        }
+        return allData;
+    }
+
+    /**
+     * Remove from the hash table.
+     * A cell in a group that still has an EMPTY cell goes back to EMPTY, since no probe
+     * can have passed through that group; otherwise it is marked DELETED.
+     * @param x the item to remove.
+     * @return true if item removed
+     */
+    public boolean remove( E x )
+    {
+        int currentPos = findPos( x );
+        if( currentPos == -1 )
+            return false;
+
+        elements[ currentPos ] = null;
+        if( matchEmpty( control[ currentPos / GROUP_WIDTH ] ) != 0 )
+            setControl( currentPos, EMPTY );
+        else
+        {
+            setControl( currentPos, DELETED );
+            deletedCt++;
+        }
+        currentSize--;
+        stats.recordRemove( );
+        return true;
+    }
+
+    /**
+     * Get current size.
+     * @return the size.
+     */
+    public int size( )
+    {
+        return currentSize;
+    }
+
+    /**
+     * Get the number of cells.
+     * @return the capacity.
+     */
+    public int capacity( )
+    {
+        return elements.length;
+    }
+
+    /**
+     * Find an item in the hash table.
+     * @param x the item to search for.
+     * @return true if item is found
+     */
+    public boolean contains( E x )
+    {
+        return findPos( x ) != -1;
+    }
+
+    /**
+     * Find an item in the hash table.
+     * @param x the item to search for.
+     * @return the matching item.
+     */
+    @SuppressWarnings( "unchecked" )
+    public E find( E x )
+    {
+        int currentPos = findPos( x );
+        return currentPos == -1 ? null : (E) elements[ currentPos ];
+    }
+
+    /**
+     * Make the hash table logically empty.
+     */
+    public void makeEmpty( )
+    {
+        java.util.Arrays.fill( elements, null );
+        java.util.Arrays.fill( control, ALL_EMPTY );
+        currentSize = 0;
+        deletedCt = 0;
+    }
+
+    /**
+     * Internal method to allocate the arrays, with a power-of-two number of groups.
+     * @param arraySize the approximate number of cells.
+     */
+    private void allocateArrays( int arraySize )
+    {
+        int groups = HashTable.nextPowerOfTwo( Math.max( 2, ( arraySize + GROUP_WIDTH - 1 ) / GROUP_WIDTH ) );
+        elements = new Object[ groups * GROUP_WIDTH ];
+        control = new long[ groups ];
+        java.util.Arrays.fill( control, ALL_EMPTY );
+        groupMask = groups - 1;
+        currentSize = 0;
+        deletedCt = 0;
+    }
+
+    private static final int DEFAULT_TABLE_SIZE = 128;
+    private static final int GROUP_WIDTH = 8;             // Control bytes per long
+    private static final double MAX_LOAD = 7.0 / 8;       // Share of cells live or DELETED before a rehash
+    private static final byte EMPTY = (byte) 0x80;
+    private static final byte DELETED = (byte) 0xFE;
+    private static final long LSBS = 0x0101010101010101L;  // Low bit of every byte
+    private static final long MSBS = 0x8080808080808080L;  // High bit of every byte
+    private static final long ALL_EMPTY = LSBS * ( EMPTY & 0xFF );
+
+    private Object [ ] elements;    // The elements, valid where the control byte is a hash
+    private long [ ] control;       // 8 control bytes per long, byte i of word g is cell 8g + i
+    private int groupMask;          // Number of groups minus one
+    private int currentSize;
+    private int deletedCt;          // Cells marked DELETED
+
+    private long totalProbeCount;
+    private long totalUses;
+    private final ProbeStats stats = new ProbeStats( );
+}